@@ -0,0 +1,87 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Synthetic benchmark inputs, generated at setup so that benchmarks run offline.
+ */
+public final class BenchmarkImages {
+
+  /**
+   * GPano XMP packet marking an image as an equirectangular panorama.
+   */
+  public static final String PANORAMA_XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+      + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+      + " GPano:ProjectionType=\"equirectangular\" GPano:UsePanoramaViewer=\"True\""
+      + " GPano:CroppedAreaImageWidthPixels=\"%1$d\" GPano:CroppedAreaImageHeightPixels=\"%2$d\""
+      + " GPano:FullPanoWidthPixels=\"%1$d\" GPano:FullPanoHeightPixels=\"%2$d\""
+      + " GPano:CroppedAreaLeftPixels=\"0\" GPano:CroppedAreaTopPixels=\"0\""
+      + " GPano:PoseHeadingDegrees=\"90.0\"/>"
+      + "</rdf:RDF></x:xmpmeta>";
+
+  private static final byte[] XMP_NAMESPACE =
+      "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.ISO_8859_1);
+
+  private BenchmarkImages() {
+    // utility class
+  }
+
+  /**
+   * Create a noisy gradient image, so that sampling cannot benefit from uniform areas.
+   * @param width image width.
+   * @param height image height.
+   * @param type BufferedImage type.
+   * @return image.
+   */
+  public static BufferedImage panorama(int width, int height, int type) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    Random random = new Random(42);
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        row[x] = 0xff000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8 | random.nextInt(256);
+      }
+      image.setRGB(0, y, width, 1, row, 0, width);
+    }
+    return image;
+  }
+
+  /**
+   * Encode an image as JPEG with an XMP APP1 segment right after SOI.
+   * @param image image to encode.
+   * @param xmp XMP packet, or null for none.
+   * @return JPEG file content.
+   * @throws IOException if encoding fails.
+   */
+  public static byte[] jpeg(BufferedImage image, String xmp) throws IOException {
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", jpeg);
+    byte[] plain = jpeg.toByteArray();
+    if (xmp == null) {
+      return plain;
+    }
+    byte[] packet = String.format(xmp, image.getWidth(), image.getHeight())
+        .getBytes(StandardCharsets.UTF_8);
+    int length = 2 + XMP_NAMESPACE.length + packet.length;
+    ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length + length + 2);
+    out.write(plain, 0, 2);
+    out.write(0xff);
+    out.write(0xe1);
+    out.write(length >> 8);
+    out.write(length & 0xff);
+    out.write(XMP_NAMESPACE, 0, XMP_NAMESPACE.length);
+    out.write(packet, 0, packet.length);
+    out.write(plain, 2, plain.length - 2);
+    return out.toByteArray();
+  }
+}
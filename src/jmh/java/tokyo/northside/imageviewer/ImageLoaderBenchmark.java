@@ -0,0 +1,81 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time from file to first displayable image: separate decode and metadata reads versus
+ * the single pass of {@link ImageLoader#open}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageLoaderBenchmark {
+
+  @Param({"4096x2048"})
+  public String size;
+
+  /**
+   * View size, 0x0 decodes at full resolution.
+   */
+  @Param({"0x0", "1280x720"})
+  public String view;
+
+  private File file;
+  private Dimension viewSize;
+  private ImageLoader loader;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String[] wh = size.split("x");
+    BufferedImage image = BenchmarkImages.panorama(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]),
+        BufferedImage.TYPE_3BYTE_BGR);
+    file = File.createTempFile("pano-bench", ".jpg");
+    Files.write(file.toPath(), BenchmarkImages.jpeg(image, BenchmarkImages.PANORAMA_XMP));
+    String[] vwh = view.split("x");
+    viewSize = new Dimension(Integer.parseInt(vwh[0]), Integer.parseInt(vwh[1]));
+    loader = new ImageLoader(Long.MAX_VALUE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public boolean separateReads() throws IOException {
+    BufferedImage image = ImageIO.read(file);
+    return image != null && ImageMetaDataUtil.isPanorama(file);
+  }
+
+  @Benchmark
+  public LoadedImage singlePass() throws IOException {
+    return loader.open(file, viewSize);
+  }
+}
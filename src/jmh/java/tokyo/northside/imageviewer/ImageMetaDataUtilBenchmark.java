@@ -0,0 +1,63 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Panorama detection on JPEG files with and without GPano XMP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageMetaDataUtilBenchmark {
+
+  @Param({"2048x1024", "8192x4096"})
+  public String size;
+
+  @Param({"true", "false"})
+  public boolean xmp;
+
+  private File file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String[] wh = size.split("x");
+    BufferedImage image = BenchmarkImages.panorama(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]),
+        BufferedImage.TYPE_3BYTE_BGR);
+    file = File.createTempFile("pano-bench", ".jpg");
+    Files.write(file.toPath(), BenchmarkImages.jpeg(image, xmp ? BenchmarkImages.PANORAMA_XMP : null));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public boolean isPanorama() {
+    return ImageMetaDataUtil.isPanorama(file);
+  }
+}
@@ -0,0 +1,120 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tokyo.northside.imageviewer.BenchmarkImages;
+
+
+/**
+ * Panorama reprojection; construction is measured by {@link CameraPlaneConstructBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CameraPlaneBenchmark {
+
+  private static final double FOV = Math.toRadians(110);
+
+  @Param({"800x600", "1920x1080", "3840x2160"})
+  public String target;
+
+  @Param({"4096x2048", "16384x8192"})
+  public String source;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  @Param({"NEAREST", "BILINEAR"})
+  public Sampling sampling;
+
+  private BufferedImage sourceImage;
+  private BufferedImage targetImage;
+  private MipMap mipMap;
+  private CameraPlane cameraPlane;
+  private CameraPlane fixedPointPlane;
+  private RenderScheduler scheduler;
+  private RemapCache remapCache;
+  private int width;
+  private int height;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int[] s = parse(source);
+    int[] t = parse(target);
+    width = t[0];
+    height = t[1];
+    sourceImage = BenchmarkImages.panorama(s[0], s[1], BufferedImage.TYPE_3BYTE_BGR);
+    targetImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    mipMap = MipMap.build(sourceImage);
+    scheduler = new RenderScheduler(threads);
+    cameraPlane = newCameraPlane();
+    cameraPlane.setScheduler(scheduler);
+    cameraPlane.setRotation(0.7, 0.3);
+    fixedPointPlane = newCameraPlane();
+    fixedPointPlane.setScheduler(scheduler);
+    fixedPointPlane.setFixedPoint(true);
+    fixedPointPlane.setRotation(0.7, 0.3);
+    remapCache = new RemapCache(Long.MAX_VALUE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    scheduler.shutdown();
+  }
+
+  private static int[] parse(String size) {
+    String[] wh = size.split("x");
+    return new int[] {Integer.parseInt(wh[0]), Integer.parseInt(wh[1])};
+  }
+
+  private CameraPlane newCameraPlane() {
+    return new CameraPlane(width, height, (width / 2.0d) / Math.tan(FOV / 2.0d));
+  }
+
+  @Benchmark
+  public BufferedImage mapping() {
+    cameraPlane.mapping(sourceImage, targetImage, sampling);
+    return targetImage;
+  }
+
+  @Benchmark
+  public BufferedImage mappingMipMap() {
+    cameraPlane.mapping(mipMap, targetImage, sampling);
+    return targetImage;
+  }
+
+  /**
+   * Revisited view: the remap table is compiled in the first call and reused afterwards.
+   */
+  @Benchmark
+  public BufferedImage mappingRemap() {
+    cameraPlane.mapping(mipMap, targetImage, sampling, remapCache, () -> false);
+    return targetImage;
+  }
+
+  @Benchmark
+  public BufferedImage mappingFixedPoint() {
+    fixedPointPlane.mapping(mipMap, targetImage, sampling);
+    return targetImage;
+  }
+}
@@ -0,0 +1,52 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Camera plane construction at common viewport sizes. Kept apart from
+ * {@link CameraPlaneBenchmark}, whose source images and other parameters do not affect it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CameraPlaneConstructBenchmark {
+
+  private static final double FOV = Math.toRadians(110);
+
+  @Param({"800x600", "1920x1080", "3840x2160"})
+  public String target;
+
+  private int width;
+  private int height;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    String[] wh = target.split("x");
+    width = Integer.parseInt(wh[0]);
+    height = Integer.parseInt(wh[1]);
+  }
+
+  @Benchmark
+  public CameraPlane construct() {
+    return new CameraPlane(width, height, (width / 2.0d) / Math.tan(FOV / 2.0d));
+  }
+}
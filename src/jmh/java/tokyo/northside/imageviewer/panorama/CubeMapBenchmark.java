@@ -0,0 +1,78 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tokyo.northside.imageviewer.BenchmarkImages;
+
+
+/**
+ * Rendering a view from a {@link CubeMap} against rendering it from the equirectangular
+ * pyramid, and the one-off cost of the conversion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CubeMapBenchmark {
+
+  @Param({"NEAREST", "BILINEAR"})
+  public Sampling sampling;
+
+  private MipMap mipMap;
+  private CubeMap cubeMap;
+  private BufferedImage targetImage;
+  private CameraPlane cameraPlane;
+  private RenderScheduler scheduler;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mipMap = MipMap.build(BenchmarkImages.panorama(4096, 2048, BufferedImage.TYPE_3BYTE_BGR));
+    cubeMap = CubeMap.convert(mipMap);
+    targetImage = new BufferedImage(1920, 1080, BufferedImage.TYPE_3BYTE_BGR);
+    scheduler = new RenderScheduler(1);
+    cameraPlane = new CameraPlane(1920, 1080, 1920 / 2.0 / Math.tan(Math.toRadians(110) / 2));
+    cameraPlane.setScheduler(scheduler);
+    cameraPlane.setRotation(0.7, 0.3);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Benchmark
+  public BufferedImage mappingEquirectangular() {
+    cameraPlane.mapping(mipMap, targetImage, sampling);
+    return targetImage;
+  }
+
+  @Benchmark
+  public BufferedImage mappingCubeMap() {
+    cameraPlane.mapping(cubeMap, targetImage, sampling, () -> false);
+    return targetImage;
+  }
+
+  @Benchmark
+  public CubeMap convert() {
+    return CubeMap.convert(mipMap);
+  }
+}
@@ -0,0 +1,88 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tokyo.northside.imageviewer.BenchmarkImages;
+
+
+/**
+ * Scalar and Vector API projection kernels, alone per ray and within a full reprojection.
+ * <p>
+ * The vector kernel needs {@code --add-modules jdk.incubator.vector}; the jmh task adds it on
+ * Java 16 and later. Without it the {@code vector} parameter fails the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionKernelBenchmark {
+
+  private static final int SPAN = 1920;
+
+  @Param({"scalar", "vector"})
+  public String kernel;
+
+  private ProjectionKernel projectionKernel;
+  private final double[] us = new double[SPAN];
+  private final double[] vs = new double[SPAN];
+  private CameraPlane cameraPlane;
+  private MipMap mipMap;
+  private BufferedImage targetImage;
+  private RenderScheduler scheduler;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    projectionKernel = "vector".equals(kernel)
+        ? ProjectionKernel.getVector() : ProjectionKernel.getScalar();
+    if (projectionKernel == null) {
+      throw new IllegalStateException("Vector API kernel unavailable on this JVM");
+    }
+    mipMap = MipMap.build(BenchmarkImages.panorama(4096, 2048, BufferedImage.TYPE_3BYTE_BGR));
+    targetImage = new BufferedImage(1920, 1080, BufferedImage.TYPE_3BYTE_BGR);
+    scheduler = new RenderScheduler(1);
+    cameraPlane = new CameraPlane(1920, 1080, 1920 / 2.0 / Math.tan(Math.toRadians(110) / 2));
+    cameraPlane.setScheduler(scheduler);
+    cameraPlane.setKernel(projectionKernel);
+    cameraPlane.setRotation(0.7, 0.3);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPAN)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public double[] textureCoordinates() {
+    projectionKernel.textureCoordinatesFast(-0.45, 0.21, 0.87, 0.0005, -0.0001, 0.0003, 0, SPAN,
+        us, vs);
+    return us;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public BufferedImage mapping() {
+    cameraPlane.mapping(mipMap, targetImage, Sampling.NEAREST, () -> false);
+    return targetImage;
+  }
+}
@@ -0,0 +1,78 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Vector2d;
+import org.joml.Vector3d;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Throughput of the texture coordinate conversions, per converted point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UVMappingBenchmark {
+
+  private static final int POINTS = 4096;
+
+  private final Vector3d[] vectors = new Vector3d[POINTS];
+  private final double[] us = new double[POINTS];
+  private final double[] vs = new double[POINTS];
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    for (int i = 0; i < POINTS; i++) {
+      vectors[i] = new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian())
+          .normalize();
+      us[i] = random.nextDouble();
+      vs[i] = random.nextDouble();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public void getTextureCoordinate(Blackhole blackhole) {
+    for (Vector3d vector : vectors) {
+      Vector2d p = UVMapping.getTextureCoordinate(vector);
+      blackhole.consume(p);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public void getTextureCoordinateFast(Blackhole blackhole) {
+    for (Vector3d vector : vectors) {
+      Vector2d p = UVMapping.getTextureCoordinateFast(vector);
+      blackhole.consume(p);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public void getVector(Blackhole blackhole) {
+    for (int i = 0; i < POINTS; i++) {
+      blackhole.consume(UVMapping.getVector(us[i], vs[i]));
+    }
+  }
+}
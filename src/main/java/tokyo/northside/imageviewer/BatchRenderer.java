@@ -0,0 +1,331 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import tokyo.northside.imageviewer.panorama.CameraPlane;
+import tokyo.northside.imageviewer.panorama.MipMap;
+import tokyo.northside.imageviewer.panorama.RemapCache;
+import tokyo.northside.imageviewer.panorama.RenderScheduler;
+import tokyo.northside.imageviewer.panorama.Sampling;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.joml.Math;
+
+
+/**
+ * Headless renderer writing still frames of many viewpoints of many panoramas.
+ * <p>
+ * Decoding, rendering and encoding run as a pipeline: while one panorama is rendered
+ * the next ones are decoded and the finished frames are encoded, each on its own pool.
+ * Every source is decoded once for all of its views, and frame buffers are reused.
+ */
+public final class BatchRenderer {
+
+  /**
+   * Panoramas decoded but not completely encoded yet, bounding memory use.
+   */
+  private static final int IMAGES_IN_FLIGHT = 2;
+
+  private final List<View> views;
+  private final File outputDirectory;
+  private final String format;
+  private final Sampling sampling;
+  private final RenderScheduler scheduler;
+  /**
+   * Views compiled once and reused for every panorama of the same size.
+   */
+  private final RemapCache remapCache = new RemapCache(Runtime.getRuntime().maxMemory() / 4);
+  private final Map<Long, Queue<BufferedImage>> buffers = new ConcurrentHashMap<>();
+  private final AtomicInteger images = new AtomicInteger();
+  private final AtomicInteger frames = new AtomicInteger();
+  private final AtomicInteger failures = new AtomicInteger();
+
+  /**
+   * A viewpoint to render.
+   */
+  static final class View {
+    private final double yaw;
+    private final double pitch;
+    private final double fov;
+    private final int width;
+    private final int height;
+
+    /**
+     * Create a view.
+     * @param yaw heading in degrees, positive to the right.
+     * @param pitch elevation in degrees, positive upwards.
+     * @param fov horizontal field of view in degrees.
+     * @param width frame width in pixels.
+     * @param height frame height in pixels.
+     */
+    View(double yaw, double pitch, double fov, int width, int height) {
+      if (width <= 0 || height <= 0 || fov <= 0 || fov >= 180) {
+        throw new IllegalArgumentException("invalid view size or field of view");
+      }
+      this.yaw = yaw;
+      this.pitch = pitch;
+      this.fov = fov;
+      this.width = width;
+      this.height = height;
+    }
+
+    /**
+     * Parse a view given as yaw,pitch,fov,width,height.
+     * @param spec view specification.
+     * @return view.
+     */
+    static View parse(String spec) {
+      String[] f = spec.trim().split("\\s*,\\s*");
+      if (f.length != 5) {
+        throw new IllegalArgumentException("expected yaw,pitch,fov,width,height but got: " + spec);
+      }
+      return new View(Double.parseDouble(f[0]), Double.parseDouble(f[1]), Double.parseDouble(f[2]),
+          Integer.parseInt(f[3]), Integer.parseInt(f[4]));
+    }
+
+    CameraPlane createCameraPlane() {
+      CameraPlane plane = new CameraPlane(width, height,
+          (width / 2.0d) / Math.tan(Math.toRadians(fov) / 2.0d));
+      plane.setRotation(Math.toRadians(yaw), -Math.toRadians(pitch));
+      return plane;
+    }
+  }
+
+  BatchRenderer(List<View> views, File outputDirectory, String format, Sampling sampling,
+                RenderScheduler scheduler) {
+    this.views = views;
+    this.outputDirectory = outputDirectory;
+    this.format = format;
+    this.sampling = sampling;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Render all views of all images.
+   * @param files panorama files.
+   * @param decodeThreads number of decoder threads.
+   * @param encodeThreads number of encoder threads.
+   * @param log destination for progress and error messages.
+   */
+  void run(List<File> files, int decodeThreads, int encodeThreads, PrintStream log) {
+    ExecutorService decoders = Executors.newFixedThreadPool(decodeThreads);
+    ExecutorService renderer = Executors.newSingleThreadExecutor();
+    ExecutorService encoders = Executors.newFixedThreadPool(encodeThreads);
+    Semaphore inFlight = new Semaphore(IMAGES_IN_FLIGHT);
+    List<CompletableFuture<Void>> pending = new ArrayList<>();
+    try {
+      for (File file : files) {
+        inFlight.acquireUninterruptibly();
+        pending.add(CompletableFuture
+            .supplyAsync(() -> decode(file), decoders)
+            .thenApplyAsync(image -> renderAll(file, image, encoders), renderer)
+            .thenCompose(encoded -> encoded)
+            .handle((ok, error) -> {
+              if (error != null) {
+                failures.incrementAndGet();
+                log.println(file + ": " + rootCause(error).getMessage());
+              } else {
+                images.incrementAndGet();
+              }
+              inFlight.release();
+              return null;
+            }));
+      }
+      CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+    } finally {
+      decoders.shutdown();
+      renderer.shutdown();
+      encoders.shutdown();
+    }
+  }
+
+  private static BufferedImage decode(File file) {
+    try {
+      BufferedImage image = ImageIO.read(file);
+      if (image == null) {
+        throw new IllegalArgumentException("unsupported image format");
+      }
+      return image;
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Render every view of one panorama and queue the frames for encoding.
+   * @return completes when all frames of the image are written.
+   */
+  private CompletableFuture<Void> renderAll(File file, BufferedImage image,
+      ExecutorService encoders) {
+    MipMap source = MipMap.build(image);
+    String name = baseName(file);
+    List<CompletableFuture<Void>> written = new ArrayList<>();
+    for (int i = 0; i < views.size(); i++) {
+      View view = views.get(i);
+      CameraPlane plane = view.createCameraPlane();
+      plane.setScheduler(scheduler);
+      BufferedImage frame = acquireBuffer(view.width, view.height);
+      plane.mapping(source, frame, sampling, remapCache, () -> false);
+      File out = new File(outputDirectory,
+          String.format(Locale.ROOT, "%s_%03d.%s", name, i, format));
+      written.add(CompletableFuture.runAsync(() -> encode(frame, out), encoders));
+    }
+    return CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0]));
+  }
+
+  private void encode(BufferedImage frame, File out) {
+    try {
+      if (!ImageIO.write(frame, format, out)) {
+        throw new IllegalArgumentException("no writer for format " + format);
+      }
+      frames.incrementAndGet();
+    } catch (IOException e) {
+      throw new IllegalStateException(out + ": " + e.getMessage(), e);
+    } finally {
+      releaseBuffer(frame);
+    }
+  }
+
+  private BufferedImage acquireBuffer(int width, int height) {
+    BufferedImage buffer = buffers
+        .computeIfAbsent(key(width, height), k -> new ConcurrentLinkedQueue<>())
+        .poll();
+    return buffer != null ? buffer : new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+  }
+
+  private void releaseBuffer(BufferedImage buffer) {
+    buffers.get(key(buffer.getWidth(), buffer.getHeight())).offer(buffer);
+  }
+
+  private static long key(int width, int height) {
+    return (long) width << 32 | height;
+  }
+
+  private static String baseName(File file) {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  private static Throwable rootCause(Throwable error) {
+    Throwable cause = error;
+    while (cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause;
+  }
+
+  int getImageCount() {
+    return images.get();
+  }
+
+  int getFrameCount() {
+    return frames.get();
+  }
+
+  int getFailureCount() {
+    return failures.get();
+  }
+
+  private static void usage(PrintStream out) {
+    out.println("Usage: panoramaviewer --batch [options] image...");
+    out.println("  --view yaw,pitch,fov,width,height  view in degrees and pixels (repeatable)");
+    out.println("  --views FILE       file with one view per line, # starts a comment");
+    out.println("  --out DIR          output directory (default: current directory)");
+    out.println("  --format png|jpg   output format (default: png)");
+    out.println("  --sampling MODE    NEAREST, BILINEAR or BICUBIC (default: BILINEAR)");
+    out.println("  --threads N        render threads (default: all processors)");
+  }
+
+  /**
+   * Command line entry point.
+   * @param args options and image files, see usage.
+   */
+  public static void main(final String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    List<View> views = new ArrayList<>();
+    List<File> files = new ArrayList<>();
+    File out = new File(".");
+    String format = "png";
+    Sampling sampling = Sampling.BILINEAR;
+    int threads = Runtime.getRuntime().availableProcessors();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--view":
+            views.add(View.parse(args[++i]));
+            break;
+          case "--views":
+            Path viewFile = new File(args[++i]).toPath();
+            for (String line : Files.readAllLines(viewFile, StandardCharsets.UTF_8)) {
+              String spec = line.replaceFirst("#.*", "").trim();
+              if (!spec.isEmpty()) {
+                views.add(View.parse(spec));
+              }
+            }
+            break;
+          case "--out":
+            out = new File(args[++i]);
+            break;
+          case "--format":
+            format = args[++i].toLowerCase(Locale.ROOT);
+            break;
+          case "--sampling":
+            sampling = Sampling.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            break;
+          case "--threads":
+            threads = Integer.parseInt(args[++i]);
+            break;
+          default:
+            files.add(new File(args[i]));
+            break;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      System.err.println(e.getMessage());
+      usage(System.err);
+      System.exit(2);
+    }
+    if (views.isEmpty() || files.isEmpty()) {
+      usage(System.err);
+      System.exit(2);
+    }
+    if (!out.isDirectory() && !out.mkdirs()) {
+      System.err.println("cannot create output directory " + out);
+      System.exit(2);
+    }
+    RenderScheduler scheduler = new RenderScheduler(threads);
+    BatchRenderer batch = new BatchRenderer(views, out, format, sampling, scheduler);
+    long start = System.nanoTime();
+    batch.run(files, Math.max(1, threads / 2), threads, System.err);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    scheduler.shutdown();
+    System.out.printf(Locale.ROOT, "%d images, %d frames in %.2f s: %.2f images/s, %.2f frames/s%n",
+        batch.getImageCount(), batch.getFrameCount(), seconds,
+        batch.getImageCount() / seconds, batch.getFrameCount() / seconds);
+    if (batch.getFailureCount() > 0) {
+      System.exit(1);
+    }
+  }
+}
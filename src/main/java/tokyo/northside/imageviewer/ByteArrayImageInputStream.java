@@ -0,0 +1,45 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+
+/**
+ * ImageInputStream over a byte array, without the cache that ImageIO puts in front of
+ * plain InputStreams.
+ */
+final class ByteArrayImageInputStream extends ImageInputStreamImpl {
+
+  private final byte[] data;
+
+  ByteArrayImageInputStream(byte[] data) {
+    this.data = data;
+  }
+
+  @Override
+  public int read() {
+    bitOffset = 0;
+    return streamPos < data.length ? data[(int) streamPos++] & 0xff : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    bitOffset = 0;
+    if (len == 0) {
+      return 0;
+    }
+    if (streamPos >= data.length) {
+      return -1;
+    }
+    int count = (int) Math.min(len, data.length - streamPos);
+    System.arraycopy(data, (int) streamPos, b, off, count);
+    streamPos += count;
+    return count;
+  }
+
+  @Override
+  public long length() {
+    return data.length;
+  }
+}
@@ -0,0 +1,79 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import tokyo.northside.imageviewer.panorama.MipMap;
+import tokyo.northside.imageviewer.panorama.TextureFormat;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+
+
+/**
+ * A decoded image with the structures derived from it, as kept by {@link ImageCache}.
+ */
+final class CachedImage {
+
+  private final File file;
+  private final BufferedImage image;
+  private final PanoramaMetadata metadata;
+  private final MipMap mipMap;
+  private final long byteCount;
+
+  /**
+   * @param file source file.
+   * @param image decoded image; not kept when mipMap holds its own copy.
+   * @param metadata panorama metadata of the file.
+   * @param mipMap resolution pyramid of a panorama, null for flat images or if not built.
+   */
+  CachedImage(File file, BufferedImage image, PanoramaMetadata metadata, MipMap mipMap) {
+    this.file = file;
+    this.image = mipMap == null || mipMap.getFormat() == TextureFormat.SOURCE ? image : null;
+    this.metadata = metadata;
+    this.mipMap = mipMap;
+    this.byteCount = byteCount(this.image) + (mipMap == null ? 0 : mipMap.getByteCount());
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * @return decoded image, null for a panorama whose pyramid is in a compact format.
+   */
+  BufferedImage getImage() {
+    return image;
+  }
+
+  PanoramaMetadata getMetadata() {
+    return metadata;
+  }
+
+  boolean isPanorama() {
+    return metadata.isEquirectangular();
+  }
+
+  /**
+   * @return resolution pyramid, null for flat images or if not built.
+   */
+  MipMap getMipMap() {
+    return mipMap;
+  }
+
+  /**
+   * @return bytes of pixel data held by this entry.
+   */
+  long getByteCount() {
+    return byteCount;
+  }
+
+  private static long byteCount(BufferedImage image) {
+    if (image == null) {
+      return 0;
+    }
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    return (long) buffer.getSize() * buffer.getNumBanks()
+        * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+  }
+}
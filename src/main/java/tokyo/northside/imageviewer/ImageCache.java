@@ -0,0 +1,112 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import tokyo.northside.imageviewer.panorama.TextureFormat;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Decoded images by file, evicting the least recently used ones to stay within a byte budget.
+ */
+final class ImageCache {
+
+  /**
+   * System property overriding the cache budget, in megabytes.
+   */
+  static final String BUDGET_PROPERTY = "panoramaviewer.cacheBudgetMB";
+
+  private final long budget;
+  private final LinkedHashMap<File, CachedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long byteCount;
+
+  /**
+   * Create a cache with the budget from {@link #BUDGET_PROPERTY}, or a quarter of the
+   * maximum heap size when the property is not set.
+   */
+  ImageCache() {
+    this(Long.getLong(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 4 >> 20) << 20);
+  }
+
+  /**
+   * Create a cache.
+   * @param budget maximum bytes of pixel data held.
+   */
+  ImageCache(long budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * @param file source file.
+   * @return the cached image, or null.
+   */
+  synchronized CachedImage get(File file) {
+    return entries.get(file);
+  }
+
+  synchronized boolean contains(File file) {
+    return entries.containsKey(file);
+  }
+
+  /**
+   * Add an image, evicting least recently used ones until the cache is within its budget.
+   * An image larger than the whole budget is not cached.
+   * @param image image to add.
+   * @return true if the image was added.
+   */
+  synchronized boolean put(CachedImage image) {
+    CachedImage old = entries.remove(image.getFile());
+    if (old != null) {
+      byteCount -= old.getByteCount();
+    }
+    if (image.getByteCount() > budget) {
+      return false;
+    }
+    Iterator<Map.Entry<File, CachedImage>> it = entries.entrySet().iterator();
+    while (byteCount + image.getByteCount() > budget) {
+      byteCount -= it.next().getValue().getByteCount();
+      it.remove();
+    }
+    entries.put(image.getFile(), image);
+    byteCount += image.getByteCount();
+    return true;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return bytes of pixel data held.
+   */
+  synchronized long getByteCount() {
+    return byteCount;
+  }
+
+  long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Largest decode budget whose images still fit in the cache together with their pyramids.
+   * <p>
+   * An image is decoded into at most {@link ImageLoader#BYTES_PER_PIXEL} bytes per pixel and
+   * kept decoded unless it is a panorama held in a compact format. The pyramid levels above
+   * level 0 add a third of level 0. With {@link TextureFormat#SOURCE} the cache thus needs
+   * 4 / 3 of the decode budget, with the compact formats no more than the decode budget.
+   * @param format format of the panorama pyramids.
+   * @return decode budget in bytes.
+   */
+  long getDecodeBudget(TextureFormat format) {
+    final long decoded = (long) ImageLoader.BYTES_PER_PIXEL << 20;
+    final TextureFormat levelFormat =
+        format == TextureFormat.SOURCE ? TextureFormat.PACKED_INT : format;
+    final long pyramid = format.getByteCount(1024, 1024) + levelFormat.getByteCount(1024, 1024) / 3;
+    final long cached = Math.max(decoded, (format == TextureFormat.SOURCE ? decoded : 0) + pyramid);
+    return budget * decoded / cached;
+  }
+}
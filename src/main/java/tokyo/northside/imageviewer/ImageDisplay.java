@@ -3,6 +3,11 @@
 package tokyo.northside.imageviewer;
 
 import tokyo.northside.imageviewer.panorama.CameraPlane;
+import tokyo.northside.imageviewer.panorama.CubeMap;
+import tokyo.northside.imageviewer.panorama.MipMap;
+import tokyo.northside.imageviewer.panorama.RenderScheduler;
+import tokyo.northside.imageviewer.panorama.Sampling;
+import tokyo.northside.imageviewer.panorama.TextureFormat;
 
 import java.awt.Color;
 import java.awt.Dimension;
@@ -19,8 +24,15 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.JComponent;
+import javax.swing.Timer;
 
 import org.joml.Math;
 
@@ -36,6 +48,35 @@ public class ImageDisplay extends JComponent {
 
   private static final long serialVersionUID = 3369727203329307716L;
   private static final double PANORAMA_FOV = Math.toRadians(110);
+  /**
+   * Narrowest panorama field of view the mouse wheel zooms to.
+   */
+  private static final double PANORAMA_MIN_FOV = Math.toRadians(10);
+  /**
+   * Delay after the last mouse interaction before the view is rendered in idle quality.
+   */
+  private static final int IDLE_DELAY_MILLIS = 250;
+  /**
+   * Most pixels a panorama preview has while the user drags or zooms, about a 4K view at
+   * a quarter of its width and height.
+   */
+  private static final int PREVIEW_MAX_PIXELS = 960 * 540;
+  /**
+   * Number of viewport sizes whose camera planes and frame buffers are kept.
+   */
+  private static final int VIEWPORT_CACHE_SIZE = 3;
+  /**
+   * System property that turns on the fixed point panorama renderer.
+   */
+  static final String FIXED_POINT_PROPERTY = "panoramaviewer.fixedPoint";
+  /**
+   * System property naming the {@link TextureFormat} panorama pyramids are held in.
+   */
+  static final String TEXTURE_FORMAT_PROPERTY = "panoramaviewer.textureFormat";
+  /**
+   * System property that turns on rendering panoramas from a cube map.
+   */
+  static final String CUBE_MAP_PROPERTY = "panoramaviewer.cubeMap";
 
   /**
    * The rectangle (in image coordinates) of the image that is visible. This
@@ -53,10 +94,197 @@ public class ImageDisplay extends JComponent {
 
   private BufferedImage image;
 
+  /**
+   * Front buffer: the last completed panorama frame, drawn by paintComponent. A preview
+   * frame is drawn scaled up, and after a resize the frame of the previous viewport is drawn
+   * scaled until the new one has a frame.
+   */
   private BufferedImage offscreenImage;
 
+  /**
+   * Guards offscreenImage while it is drawn, so that the worker never renders into
+   * a buffer that is still on screen.
+   */
+  private final transient Object frameLock = new Object();
+
+  private final transient RenderWorker renderWorker = new RenderWorker("panorama-render");
+
+  /**
+   * Decodes the visible region of a picture at full resolution when it is shown enlarged
+   * beyond the resolution it was decoded at.
+   */
+  private transient RegionDecoder regionDecoder;
+  /**
+   * Last decoded region, shown instead of the picture while visibleRect equals detailRect.
+   */
+  private BufferedImage detail;
+  private Rectangle detailRect;
+  private Rectangle requestedDetailRect;
+  private final transient RenderWorker detailWorker = new RenderWorker("image-detail");
+
+  private transient RenderScheduler renderScheduler = RenderScheduler.getDefault();
+
+  private volatile boolean fixedPoint = Boolean.getBoolean(FIXED_POINT_PROPERTY);
+
+  private TextureFormat textureFormat = getDefaultTextureFormat();
+
+  private boolean cubeMapEnabled = Boolean.getBoolean(CUBE_MAP_PROPERTY);
+
   private CameraPlane cameraPlane;
 
+  /**
+   * Viewport of cameraPlane.
+   */
+  private Viewport viewport;
+
+  /**
+   * Recently used viewports by size, so that switching back and forth between window
+   * sizes reuses planes and buffers.
+   */
+  private final transient Map<Dimension, Viewport> viewports =
+      new LinkedHashMap<Dimension, Viewport>(VIEWPORT_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Dimension, Viewport> eldest) {
+          return size() > VIEWPORT_CACHE_SIZE;
+        }
+      };
+
+  /**
+   * Size of the viewport being prepared by the render worker, null if none.
+   */
+  private Dimension pendingSize;
+
+  /**
+   * Resolution pyramid of the panorama, built in the background.
+   */
+  private MipMap mipMap;
+
+  /**
+   * Cube map converted from mipMap in the background, null until it is ready.
+   */
+  private CubeMap cubeMap;
+
+  /**
+   * Panorama sampling while the user is dragging the view.
+   */
+  private Sampling interactiveSampling = Sampling.NEAREST;
+
+  /**
+   * Panorama sampling once the view is at rest.
+   */
+  private Sampling idleSampling = Sampling.BILINEAR;
+
+  private volatile boolean interacting;
+
+  private final Timer idleTimer;
+
+  /**
+   * View that offscreenImage currently shows, null when it has to be rendered.
+   */
+  private ViewState renderedView;
+
+  /**
+   * View most recently posted to the render worker.
+   */
+  private ViewState requestedView;
+
+  /**
+   * Number of full panorama reprojections done so far.
+   */
+  private long renderCount;
+
+  /**
+   * Number of panorama previews rendered so far.
+   */
+  private long previewCount;
+
+  /**
+   * Camera plane of one viewport size with its two frame buffers, and a plane of a fraction
+   * of the size with its own two buffers for previews while the user interacts.
+   */
+  private static final class Viewport {
+    private final CameraPlane plane;
+    private final BufferedImage[] buffers = new BufferedImage[2];
+    private final CameraPlane previewPlane;
+    private final BufferedImage[] previewBuffers = new BufferedImage[2];
+
+    Viewport(Dimension size, RenderScheduler scheduler, boolean fixedPoint) {
+      plane = new CameraPlane(size.width, size.height,
+          (size.width / 2.0d) / Math.tan(PANORAMA_FOV / 2.0d));
+      int scale = getPreviewScale(size);
+      Dimension preview = new Dimension(Math.max(1, size.width / scale),
+          Math.max(1, size.height / scale));
+      previewPlane = new CameraPlane(preview.width, preview.height,
+          (preview.width / 2.0d) / Math.tan(PANORAMA_FOV / 2.0d));
+      setScheduler(scheduler);
+      setFixedPoint(fixedPoint);
+      for (int i = 0; i < 2; i++) {
+        buffers[i] = new BufferedImage(size.width, size.height, BufferedImage.TYPE_3BYTE_BGR);
+        previewBuffers[i] = new BufferedImage(preview.width, preview.height,
+            BufferedImage.TYPE_3BYTE_BGR);
+      }
+    }
+
+    void setScheduler(RenderScheduler scheduler) {
+      plane.setScheduler(scheduler);
+      previewPlane.setScheduler(scheduler);
+    }
+
+    void setFixedPoint(boolean fixedPoint) {
+      plane.setFixedPoint(fixedPoint);
+      previewPlane.setFixedPoint(fixedPoint);
+    }
+
+    /**
+     * @return the full size or preview buffer that is not on screen.
+     */
+    BufferedImage back(BufferedImage front, boolean preview) {
+      BufferedImage[] b = preview ? previewBuffers : buffers;
+      return b[0] == front ? b[1] : b[0];
+    }
+  }
+
+  /**
+   * Everything a rendered panorama frame depends on.
+   */
+  private static final class ViewState {
+    private final CameraPlane plane;
+    private final long version;
+    private final MipMap source;
+    private final CubeMap cube;
+    private final int level;
+    private final Sampling sampling;
+    private final boolean preview;
+
+    ViewState(CameraPlane plane, MipMap source, CubeMap cube, Sampling sampling,
+              boolean preview) {
+      this.plane = plane;
+      this.version = plane.getVersion();
+      this.source = source;
+      this.cube = cube;
+      this.level = cube != null ? 0 : plane.selectLevel(source);
+      this.sampling = sampling;
+      this.preview = preview;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ViewState)) {
+        return false;
+      }
+      ViewState other = (ViewState) o;
+      return plane == other.plane && version == other.version && source == other.source
+          && cube == other.cube && level == other.level && sampling == other.sampling
+          && preview == other.preview;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(plane), version, System.identityHashCode(source),
+          System.identityHashCode(cube), level, sampling, preview);
+    }
+  }
+
   private class ImgDisplayKeyListener implements KeyListener {
 
     public void keyPressed(KeyEvent e) {
@@ -87,6 +315,10 @@ public class ImageDisplay extends JComponent {
      */
     @Override
     public void mouseWheelMoved(MouseWheelEvent e) {
+      if (ImageDisplay.this.pano) {
+        zoomPanorama(e);
+        return;
+      }
       Image image;
       Rectangle visibleRect;
       synchronized (ImageDisplay.this) {
@@ -129,31 +361,17 @@ public class ImageDisplay extends JComponent {
         } else {
           visibleRect.height = wFact / getSize().width;
         }
-        if (ImageDisplay.this.pano) {
-          // The size of the visible rectangle is limited by the offscreenImage size.
-          checkVisibleRectSize(offscreenImage, visibleRect);
-          // Set the position of the visible rectangle, so that the mouse
-          // cursor doesn't move on the image.
-          Rectangle drawRect = calculateDrawImageRectangle(visibleRect);
-          visibleRect.x = this.mousePointInImg.x
-                  + ((drawRect.x - e.getX()) * visibleRect.width) / drawRect.width;
-          visibleRect.y = this.mousePointInImg.y
-                  + ((drawRect.y - e.getY()) * visibleRect.height) / drawRect.height;
-          // The position is also limited by the image size
-          checkVisibleRectPos(offscreenImage, visibleRect);
-        } else {
-          // The size of the visible rectangle is limited by the image size.
-          checkVisibleRectSize(image, visibleRect);
-          // Set the position of the visible rectangle, so that the mouse
-          // cursor doesn't move on the image.
-          Rectangle drawRect = calculateDrawImageRectangle(visibleRect);
-          visibleRect.x = this.mousePointInImg.x
-                  + ((drawRect.x - e.getX()) * visibleRect.width) / drawRect.width;
-          visibleRect.y = this.mousePointInImg.y
-                  + ((drawRect.y - e.getY()) * visibleRect.height) / drawRect.height;
-          // The position is also limited by the image size
-          checkVisibleRectPos(image, visibleRect);
-        }
+        // The size of the visible rectangle is limited by the image size.
+        checkVisibleRectSize(image, visibleRect);
+        // Set the position of the visible rectangle, so that the mouse
+        // cursor doesn't move on the image.
+        Rectangle drawRect = calculateDrawImageRectangle(visibleRect);
+        visibleRect.x = this.mousePointInImg.x
+                + ((drawRect.x - e.getX()) * visibleRect.width) / drawRect.width;
+        visibleRect.y = this.mousePointInImg.y
+                + ((drawRect.y - e.getY()) * visibleRect.height) / drawRect.height;
+        // The position is also limited by the image size
+        checkVisibleRectPos(image, visibleRect);
         synchronized (ImageDisplay.this) {
           ImageDisplay.this.visibleRect = visibleRect;
         }
@@ -162,24 +380,65 @@ public class ImageDisplay extends JComponent {
       }
     }
 
+    /**
+     * Zoom the panorama by narrowing or widening the field of view, keeping the direction
+     * under the mouse cursor in place. The frame is rendered at full resolution for the
+     * new field of view rather than scaled.
+     */
+    private void zoomPanorama(MouseWheelEvent e) {
+      CameraPlane plane;
+      synchronized (ImageDisplay.this) {
+        plane = cameraPlane;
+      }
+      if (plane == null) {
+        return;
+      }
+      this.mouseIsDragging = false;
+      ImageDisplay.this.selectedRect = null;
+      double fov = plane.getFov();
+      fov = e.getWheelRotation() > 0 ? fov * 3 / 2 : fov * 2 / 3;
+      fov = Math.min(PANORAMA_FOV, Math.max(PANORAMA_MIN_FOV, fov));
+      startInteraction();
+      plane.setFov(fov, e.getPoint());
+      stopInteraction();
+      ImageDisplay.this.repaint();
+    }
+
+    /**
+     * Turn the panorama by the mouse movement since the last drag event. The view follows
+     * the mouse with previews until the drag ends.
+     */
+    private void rotatePanorama(Point current) {
+      CameraPlane plane;
+      synchronized (ImageDisplay.this) {
+        plane = cameraPlane;
+      }
+      if (plane == null) {
+        return;
+      }
+      plane.setRotationFromDelta(this.mousePointInImg, current);
+      this.mousePointInImg = current;
+      ImageDisplay.this.repaint();
+    }
+
     /** Center the display on the point that has been clicked */
     @Override
     public void mouseClicked(MouseEvent e) {
       // Move the center to the clicked point.
       BufferedImage image;
       Rectangle visibleRect;
+      boolean shown;
       synchronized (ImageDisplay.this) {
         image = getImage();
         visibleRect = ImageDisplay.this.visibleRect;
+        shown = hasPicture();
       }
-      if (image != null && Math.min(getSize().getWidth(), getSize().getHeight()) > 0) {
+      if (shown && Math.min(getSize().getWidth(), getSize().getHeight()) > 0) {
         if (ImageDisplay.this.pano) {
           if (e.getButton() == PICTURE_OPTION_BUTTON) {
-            if (!ImageDisplay.this.visibleRect.equals(new Rectangle(0, 0,
-                    offscreenImage.getWidth(null), offscreenImage.getHeight(null)))) {
-              // Zoom to 1:1
-              ImageDisplay.this.visibleRect = new Rectangle(0, 0,
-                  offscreenImage.getWidth(null), offscreenImage.getHeight(null));
+            if (Math.abs(cameraPlane.getFov() - PANORAMA_FOV) > 1e-9) {
+              // Zoom out to the initial field of view
+              cameraPlane.setFov(PANORAMA_FOV);
               ImageDisplay.this.repaint();
             }
           } else if (e.getButton() == PICTURE_DRAG_BUTTON) {
@@ -228,24 +487,21 @@ public class ImageDisplay extends JComponent {
      */
     @Override
     public void mousePressed(MouseEvent e) {
-      if (getImage() == null) {
+      if (!hasPicture()) {
         this.mouseIsDragging = false;
         ImageDisplay.this.selectedRect = null;
         return;
       }
-      Image image;
       Rectangle visibleRect;
       synchronized (ImageDisplay.this) {
-        image = ImageDisplay.this.image;
         visibleRect = ImageDisplay.this.visibleRect;
       }
-      if (image == null)
-        return;
       if (e.getButton() == PICTURE_DRAG_BUTTON) {
         this.mousePointInImg = comp2imgCoord(visibleRect, e.getX(), e.getY());
         this.mouseIsDragging = true;
+        startInteraction();
         ImageDisplay.this.selectedRect = null;
-      } else if (e.getButton() == PICTURE_ZOOM_BUTTON) {
+      } else if (e.getButton() == PICTURE_ZOOM_BUTTON && !ImageDisplay.this.pano) {
         this.mousePointInImg = comp2imgCoord(visibleRect, e.getX(), e.getY());
         checkPointInVisibleRect(this.mousePointInImg, visibleRect);
         this.mouseIsDragging = false;
@@ -263,11 +519,13 @@ public class ImageDisplay extends JComponent {
         return;
       BufferedImage image;
       Rectangle visibleRect;
+      boolean shown;
       synchronized (ImageDisplay.this) {
         image = getImage();
         visibleRect = ImageDisplay.this.visibleRect;
+        shown = hasPicture();
       }
-      if (image == null) {
+      if (!shown) {
         this.mouseIsDragging = false;
         ImageDisplay.this.selectedRect = null;
         return;
@@ -282,6 +540,8 @@ public class ImageDisplay extends JComponent {
             ImageDisplay.this.visibleRect = visibleRect;
           }
           ImageDisplay.this.repaint();
+        } else {
+          rotatePanorama(comp2imgCoord(visibleRect, e.getX(), e.getY()));
         }
       } else if (ImageDisplay.this.selectedRect != null) {
         Point p = comp2imgCoord(visibleRect, e.getX(), e.getY());
@@ -304,21 +564,22 @@ public class ImageDisplay extends JComponent {
       if (!this.mouseIsDragging && ImageDisplay.this.selectedRect == null)
         return;
       BufferedImage image;
+      boolean shown;
       synchronized (ImageDisplay.this) {
         image = getImage();
+        shown = hasPicture();
       }
-      if (image == null) {
+      if (!shown) {
         this.mouseIsDragging = false;
         ImageDisplay.this.selectedRect = null;
         return;
       }
       if (this.mouseIsDragging) {
         if (ImageDisplay.this.pano) {
-          Point current = comp2imgCoord(visibleRect, e.getX(), e.getY());
-          cameraPlane.setRotationFromDelta(mousePointInImg, current);
-          ImageDisplay.this.repaint();
+          rotatePanorama(comp2imgCoord(visibleRect, e.getX(), e.getY()));
         }
         this.mouseIsDragging = false;
+        stopInteraction();
       } else if (ImageDisplay.this.selectedRect != null) {
         int oldWidth = ImageDisplay.this.selectedRect.width;
         int oldHeight = ImageDisplay.this.selectedRect.height;
@@ -386,6 +647,26 @@ public class ImageDisplay extends JComponent {
     }
   }
 
+  /**
+   * Decodes regions of the full resolution version of a picture that is shown subsampled.
+   */
+  interface RegionDecoder {
+    /**
+     * @return size of the full resolution picture, null if it cannot be decoded.
+     * @throws IOException if the picture cannot be read.
+     */
+    Dimension getSize() throws IOException;
+
+    /**
+     * @param region region in full resolution picture coordinates.
+     * @param neededWidth width the region is shown at.
+     * @param neededHeight height the region is shown at.
+     * @return decoded region, or null if it cannot be decoded.
+     * @throws IOException if the picture cannot be read.
+     */
+    BufferedImage read(Rectangle region, int neededWidth, int neededHeight) throws IOException;
+  }
+
   /**
    * Main constructor.
    */
@@ -396,6 +677,151 @@ public class ImageDisplay extends JComponent {
     addMouseMotionListener(mouseListener);
     ImgDisplayKeyListener keyListener = new ImgDisplayKeyListener();
     addKeyListener(keyListener);
+    idleTimer = new Timer(IDLE_DELAY_MILLIS, e -> {
+      interacting = false;
+      repaint();
+    });
+    idleTimer.setRepeats(false);
+  }
+
+  /**
+   * Sets the panorama sampling modes.
+   *
+   * @param interactive sampling used while the view is being dragged.
+   * @param idle sampling used once the view is at rest.
+   */
+  public void setSampling(Sampling interactive, Sampling idle) {
+    this.interactiveSampling = interactive;
+    this.idleSampling = idle;
+    repaint();
+  }
+
+  /**
+   * Sets the scheduler that renders the panorama tiles, for example one with bounded
+   * parallelism so that several viewers in one JVM share the processors fairly.
+   *
+   * @param scheduler render scheduler.
+   */
+  public synchronized void setRenderScheduler(RenderScheduler scheduler) {
+    this.renderScheduler = scheduler;
+    for (Viewport v : viewports.values()) {
+      v.setScheduler(scheduler);
+    }
+  }
+
+  /**
+   * Switches between the floating point and the fixed point panorama renderer. The fixed
+   * point one is faster on machines without fast floating point and slightly less accurate;
+   * it is off unless the {@code panoramaviewer.fixedPoint} system property is true.
+   *
+   * @param fixedPoint true to use the fixed point renderer.
+   */
+  public synchronized void setFixedPoint(boolean fixedPoint) {
+    this.fixedPoint = fixedPoint;
+    for (Viewport v : viewports.values()) {
+      v.setFixedPoint(fixedPoint);
+    }
+    repaint();
+  }
+
+  /**
+   * Sets the format new panorama pyramids are held in. With a compact format the display
+   * keeps no reference to the decoded panorama, only to the pyramid, and {@link #getImage()}
+   * returns null for it.
+   *
+   * @param format texture format; the default comes from the
+   *     {@code panoramaviewer.textureFormat} system property, else {@link TextureFormat#SOURCE}.
+   */
+  public synchronized void setTextureFormat(TextureFormat format) {
+    this.textureFormat = format;
+  }
+
+  /**
+   * @return format new panorama pyramids are held in.
+   */
+  public synchronized TextureFormat getTextureFormat() {
+    return textureFormat;
+  }
+
+  /**
+   * Switches rendering panoramas from a cube map on or off. The cube map is converted from
+   * the pyramid in the background, in the texture format of the pyramid; until it is ready
+   * the panorama is rendered from the pyramid. It is off unless the
+   * {@code panoramaviewer.cubeMap} system property is true.
+   *
+   * @param enabled true to render from a cube map.
+   */
+  public synchronized void setCubeMap(boolean enabled) {
+    this.cubeMapEnabled = enabled;
+    this.cubeMap = null;
+    if (enabled && pano && mipMap != null) {
+      convertCubeMap(mipMap);
+    }
+    repaint();
+  }
+
+  /**
+   * Convert a pyramid to a cube map on the common pool and use it if the pyramid is still
+   * shown by then.
+   */
+  private void convertCubeMap(MipMap source) {
+    TextureFormat format = source.getFormat();
+    ForkJoinPool.commonPool().execute(() -> {
+      CubeMap cube = CubeMap.convert(source, CubeMap.getDefaultFaceSize(source), format);
+      synchronized (this) {
+        if (source != mipMap || !cubeMapEnabled) {
+          return;
+        }
+        cubeMap = cube;
+      }
+      repaint();
+    });
+  }
+
+  /**
+   * @return format named by {@link #TEXTURE_FORMAT_PROPERTY}, or {@link TextureFormat#SOURCE}.
+   */
+  static TextureFormat getDefaultTextureFormat() {
+    try {
+      return TextureFormat.valueOf(System.getProperty(TEXTURE_FORMAT_PROPERTY,
+          TextureFormat.SOURCE.name()).toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      return TextureFormat.SOURCE;
+    }
+  }
+
+  /**
+   * Whether a picture is shown. A panorama in a compact format has a pyramid but no image.
+   */
+  private synchronized boolean hasPicture() {
+    return image != null || pano && mipMap != null;
+  }
+
+  /**
+   * Factor the width and height of a panorama view are divided by for previews: 2, or more
+   * to keep previews of large views within {@link #PREVIEW_MAX_PIXELS}.
+   *
+   * @param size size of the view.
+   * @return preview scale.
+   */
+  static int getPreviewScale(Dimension size) {
+    int scale = 2;
+    while ((long) (size.width / scale) * (size.height / scale) > PREVIEW_MAX_PIXELS) {
+      scale++;
+    }
+    return scale;
+  }
+
+  private void startInteraction() {
+    idleTimer.stop();
+    interacting = true;
+  }
+
+  /**
+   * End of user input; the view is refined to idle quality after a short delay.
+   */
+  private void stopInteraction() {
+    idleTimer.restart();
   }
 
   /**
@@ -404,19 +830,53 @@ public class ImageDisplay extends JComponent {
    * @param image The picture to be displayed.
    */
   public void setImage(BufferedImage image, boolean pano) {
+    setImage(image, pano, null);
+  }
+
+  /**
+   * Sets a new picture to be displayed, reusing its resolution pyramid.
+   *
+   * @param image The picture to be displayed, may be null for a panorama given by its
+   *     pyramid in a compact format.
+   * @param pano whether the picture is an equirectangular panorama.
+   * @param mipMap pyramid built from image, or null to build it in the background.
+   */
+  public void setImage(BufferedImage image, boolean pano, MipMap mipMap) {
     synchronized (this) {
       this.image = image;
       this.pano = pano;
       this.selectedRect = null;
-      if (image != null) {
+      this.mipMap = null;
+      this.cubeMap = null;
+      this.regionDecoder = null;
+      clearDetail();
+      if (image != null || pano && mipMap != null) {
         Dimension s = getSize();
         if (this.pano) {
+          s = new Dimension(Math.max(1, s.width), Math.max(1, s.height));
           this.visibleRect = new Rectangle(0, 0, s.width, s.height);
-          offscreenImage = new BufferedImage(s.width, s.height, BufferedImage.TYPE_3BYTE_BGR);
-          cameraPlane = new CameraPlane(s.width, s.height,
-              (s.width / 2.0d) / Math.tan(PANORAMA_FOV / 2.0d));
-          cameraPlane.mapping(image, offscreenImage);
+          Viewport v = viewports.get(s);
+          if (v == null) {
+            v = new Viewport(s, renderScheduler, fixedPoint);
+            viewports.put(s, v);
+          } else {
+            v.plane.setFov(PANORAMA_FOV);
+            v.plane.setRotation(0, 0);
+          }
+          viewport = v;
+          cameraPlane = v.plane;
+          pendingSize = null;
+          synchronized (frameLock) {
+            if (offscreenImage == null) {
+              offscreenImage = v.buffers[0];
+            }
+          }
+          setPyramid(image, mipMap);
+          renderedView = null;
+          requestedView = null;
+          requestRender();
         } else {
+          this.mipMap = null;
           this.visibleRect = new Rectangle(0, 0, image.getWidth(null),
                   image.getHeight(null));
         }
@@ -425,10 +885,138 @@ public class ImageDisplay extends JComponent {
     repaint();
   }
 
+  /**
+   * Replaces the picture with the same picture at another resolution, keeping the view.
+   * Used to refine an image that was first shown subsampled.
+   *
+   * @param image The picture in its new resolution.
+   */
+  public void updateImage(BufferedImage image) {
+    updateImage(image, null);
+  }
+
+  /**
+   * Replaces the picture with the same picture at another resolution, keeping the view.
+   *
+   * @param image The picture in its new resolution.
+   * @param mipMap pyramid built from image, or null to build it in the background.
+   */
+  public void updateImage(BufferedImage image, MipMap mipMap) {
+    synchronized (this) {
+      BufferedImage old = this.image;
+      if (!hasPicture() || image == null && (!pano || mipMap == null)) {
+        return;
+      }
+      this.selectedRect = null;
+      if (this.pano) {
+        setPyramid(image, mipMap);
+      } else {
+        this.image = image;
+        clearDetail();
+        double scale = (double) image.getWidth() / old.getWidth();
+        Rectangle r = this.visibleRect;
+        this.visibleRect = new Rectangle((int) (r.x * scale), (int) (r.y * scale),
+            (int) (r.width * scale), (int) (r.height * scale));
+      }
+    }
+    repaint();
+  }
+
+  /**
+   * Sets the decoder of the full resolution picture, for showing the visible region sharp
+   * when a picture that was decoded subsampled is zoomed into. Ignored for panoramas, and
+   * reset by {@link #setImage(BufferedImage, boolean, MipMap)}.
+   *
+   * @param decoder region decoder of the shown picture.
+   */
+  synchronized void setRegionDecoder(RegionDecoder decoder) {
+    if (!pano && image != null) {
+      this.regionDecoder = decoder;
+      clearDetail();
+      repaint();
+    }
+  }
+
+  private void clearDetail() {
+    this.detail = null;
+    this.detailRect = null;
+    this.requestedDetailRect = null;
+  }
+
+  /**
+   * Decode the visible region at full resolution in the background if the picture is shown
+   * enlarged and no decode of that region was requested yet. Superseded requests are dropped.
+   */
+  private synchronized void requestDetail(Rectangle visibleRect, Dimension size) {
+    final RegionDecoder decoder = regionDecoder;
+    final BufferedImage picture = image;
+    if (decoder == null || picture == null || pano || size.width <= visibleRect.width
+        || visibleRect.equals(requestedDetailRect)) {
+      return;
+    }
+    final Rectangle rect = new Rectangle(visibleRect);
+    requestedDetailRect = rect;
+    detailWorker.submit(() -> {
+      BufferedImage decoded = null;
+      try {
+        Dimension full = decoder.getSize();
+        if (full != null && full.width > picture.getWidth()) {
+          double scale = (double) full.width / picture.getWidth();
+          Rectangle region = new Rectangle((int) (rect.x * scale), (int) (rect.y * scale),
+              (int) java.lang.Math.ceil(rect.width * scale),
+              (int) java.lang.Math.ceil(rect.height * scale));
+          decoded = decoder.read(region, size.width, size.height);
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        // keep showing the subsampled picture
+      }
+      synchronized (this) {
+        if (decoded == null || decoder != regionDecoder || picture != image
+            || !rect.equals(requestedDetailRect)) {
+          return;
+        }
+        detail = decoded;
+        detailRect = rect;
+      }
+      repaint();
+    });
+  }
+
+  /**
+   * Use or build the pyramid of a panorama. The image is only kept while the pyramid reads
+   * it in place.
+   */
+  private void setPyramid(BufferedImage image, MipMap mipMap) {
+    this.mipMap = mipMap != null ? mipMap
+        : MipMap.buildAsync(image, textureFormat, ForkJoinPool.commonPool(), this::repaint);
+    this.image = this.mipMap.getFormat() == TextureFormat.SOURCE ? image : null;
+    this.cubeMap = null;
+    if (cubeMapEnabled) {
+      convertCubeMap(this.mipMap);
+    }
+  }
+
+  /**
+   * Source image size that shows the picture at 1:1 in a view of the given size.
+   *
+   * @param view size of the view.
+   * @param pano whether the picture is an equirectangular panorama.
+   * @return needed image size.
+   */
+  static Dimension getNeededImageSize(Dimension view, boolean pano) {
+    if (!pano) {
+      return new Dimension(view);
+    }
+    double distance = (view.width / 2.0d) / Math.tan(PANORAMA_FOV / 2.0d);
+    int width = (int) java.lang.Math.ceil(2 * Math.PI * distance);
+    return new Dimension(width, width / 2);
+  }
+
   /**
    * Returns the picture that is being displayed
    *
-   * @return The picture that is being displayed.
+   * @return The picture that is being displayed, null for a panorama held in a compact
+   *     {@link TextureFormat}.
    */
   public BufferedImage getImage() {
     return this.image;
@@ -441,11 +1029,15 @@ public class ImageDisplay extends JComponent {
   public void paintComponent(Graphics g) {
     BufferedImage image;
     Rectangle visibleRect;
+    BufferedImage detail;
+    boolean shown;
     synchronized (this) {
       image = this.image;
       visibleRect = this.visibleRect;
+      detail = visibleRect != null && visibleRect.equals(detailRect) ? this.detail : null;
+      shown = hasPicture();
     }
-    if (image == null) {
+    if (!shown) {
       g.setColor(Color.black);
       String noImageStr = "No image selected";
       Rectangle2D noImageSize = g.getFontMetrics(g.getFont()).getStringBounds(
@@ -457,16 +1049,22 @@ public class ImageDisplay extends JComponent {
     } else {
       Rectangle target;
       if (this.pano) {
-        cameraPlane.mapping(image, offscreenImage);
-        target = new Rectangle(0, 0, offscreenImage.getWidth(null), offscreenImage.getHeight(null));
-        g.drawImage(offscreenImage, target.x, target.y, target.x + target.width, target.y
-                + target.height, visibleRect.x, visibleRect.y, visibleRect.x
-                + visibleRect.width, visibleRect.y + visibleRect.height, null);
+        requestRender();
+        synchronized (frameLock) {
+          // Scaled for previews, and while the viewport of a new size is not rendered yet.
+          Dimension size = getSize();
+          g.drawImage(offscreenImage, 0, 0, size.width, size.height, null);
+        }
       } else {
         target = calculateDrawImageRectangle(visibleRect);
-        g.drawImage(image, target.x, target.y, target.x + target.width, target.y
-                + target.height, visibleRect.x, visibleRect.y, visibleRect.x
-                + visibleRect.width, visibleRect.y + visibleRect.height, null);
+        if (detail != null) {
+          g.drawImage(detail, target.x, target.y, target.width, target.height, null);
+        } else {
+          g.drawImage(image, target.x, target.y, target.x + target.width, target.y
+                  + target.height, visibleRect.x, visibleRect.y, visibleRect.x
+                  + visibleRect.width, visibleRect.y + visibleRect.height, null);
+          requestDetail(visibleRect, target.getSize());
+        }
         if (this.selectedRect != null) {
           Point topLeft = img2compCoord(visibleRect, this.selectedRect.x,
                   this.selectedRect.y);
@@ -487,6 +1085,161 @@ public class ImageDisplay extends JComponent {
     }
   }
 
+  /**
+   * Post the current view to the render worker unless it is already shown or on its way.
+   * Never blocks on reprojection.
+   */
+  private synchronized void requestRender() {
+    if (!pano || cameraPlane == null) {
+      return;
+    }
+    Dimension size = getSize();
+    if (size.width > 0 && size.height > 0
+        && (size.width != cameraPlane.getWidth() || size.height != cameraPlane.getHeight())) {
+      if (!size.equals(pendingSize)) {
+        pendingSize = size;
+        renderWorker.submit(() -> switchViewport(size));
+      }
+      return;
+    }
+    ViewState view = new ViewState(cameraPlane, mipMap, cubeMap,
+        interacting ? interactiveSampling : idleSampling, interacting);
+    if (view.equals(renderedView) || view.equals(requestedView)) {
+      return;
+    }
+    requestedView = view;
+    renderWorker.submit(() -> render(view));
+  }
+
+  /**
+   * Switch to the viewport of a new component size, creating it if it is not cached.
+   * Runs on the render worker, so that buffers are allocated off the event thread.
+   */
+  private void switchViewport(Dimension size) {
+    Viewport next;
+    synchronized (this) {
+      if (!size.equals(pendingSize)) {
+        return;
+      }
+      next = viewports.get(size);
+    }
+    if (next == null) {
+      next = new Viewport(size, renderScheduler, fixedPoint);
+    }
+    synchronized (this) {
+      if (!pano || cameraPlane == null || !size.equals(pendingSize)) {
+        return;
+      }
+      next.plane.setView(cameraPlane);
+      viewports.put(size, next);
+      viewport = next;
+      cameraPlane = next.plane;
+      visibleRect = new Rectangle(0, 0, size.width, size.height);
+      pendingSize = null;
+    }
+    requestRender();
+  }
+
+  /**
+   * Render a view into the back buffer and swap it to the front. Runs on the render worker.
+   * Previews are rendered by the preview plane of the viewport and drawn scaled up.
+   */
+  private void render(ViewState view) {
+    BufferedImage back;
+    CameraPlane plane;
+    synchronized (this) {
+      if (view.plane != cameraPlane) {
+        // The image or the viewport was replaced in the meantime.
+        return;
+      }
+      synchronized (frameLock) {
+        back = viewport.back(offscreenImage, view.preview);
+      }
+      plane = view.preview ? viewport.previewPlane : view.plane;
+    }
+    if (view.preview) {
+      plane.setView(view.plane);
+    }
+    boolean complete = view.cube != null
+        ? plane.mapping(view.cube, back, view.sampling, renderWorker::hasPending)
+        : plane.mapping(view.source, back, view.sampling, renderWorker::hasPending);
+    if (!complete) {
+      // A newer view is waiting, the partial frame is never shown.
+      return;
+    }
+    synchronized (this) {
+      if (view.plane != cameraPlane) {
+        return;
+      }
+      synchronized (frameLock) {
+        offscreenImage = back;
+      }
+      renderedView = view;
+      if (view.preview) {
+        previewCount++;
+      } else {
+        renderCount++;
+      }
+    }
+    repaint();
+  }
+
+  /**
+   * Wait for the render worker to finish the frames requested so far.
+   *
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  void waitForRender() throws InterruptedException {
+    renderWorker.flush();
+  }
+
+  /**
+   * Wait for the regions requested so far to be decoded.
+   *
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  void waitForDetail() throws InterruptedException {
+    detailWorker.flush();
+  }
+
+  /**
+   * Stop the background workers of the display. Called once the window showing it is closed.
+   */
+  void dispose() {
+    renderWorker.shutdown();
+    detailWorker.shutdown();
+  }
+
+  /**
+   * Returns the number of full panorama reprojections done so far.
+   *
+   * @return render count.
+   */
+  synchronized long getRenderCount() {
+    return renderCount;
+  }
+
+  /**
+   * Returns the number of panorama previews rendered so far.
+   *
+   * @return preview count.
+   */
+  synchronized long getPreviewCount() {
+    return previewCount;
+  }
+
+  /**
+   * Returns the size of the panorama frame on screen.
+   *
+   * @return frame size, null if there is none.
+   */
+  Dimension getFrameSize() {
+    synchronized (frameLock) {
+      return offscreenImage == null ? null
+          : new Dimension(offscreenImage.getWidth(), offscreenImage.getHeight());
+    }
+  }
+
   private Point img2compCoord(Rectangle visibleRect, int xImg, int yImg) {
     Rectangle drawRect = calculateDrawImageRectangle(visibleRect);
     return new Point(drawRect.x + ((xImg - visibleRect.x) * drawRect.width)
@@ -0,0 +1,236 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+/**
+ * Decodes images at reduced resolution, so that huge panoramas fit in memory.
+ * <p>
+ * Uses {@link ImageReadParam#setSourceSubsampling} to keep only every n-th pixel of every
+ * n-th row while decoding, and optionally {@link ImageReadParam#setSourceRegion} to decode
+ * only a part of the image. The number of decoded pixels is limited by a byte budget.
+ */
+class ImageLoader {
+
+  /**
+   * System property overriding the decode budget, in megabytes.
+   */
+  static final String BUDGET_PROPERTY = "panoramaviewer.decodeBudgetMB";
+
+  /**
+   * Upper estimate of the bytes per decoded pixel.
+   */
+  static final int BYTES_PER_PIXEL = 4;
+
+  private final long budget;
+
+  /**
+   * Create a loader with the budget from {@link #BUDGET_PROPERTY}, or a quarter of the
+   * maximum heap size when the property is not set.
+   */
+  ImageLoader() {
+    this(getDefaultBudget());
+  }
+
+  /**
+   * Create a loader.
+   * @param budget maximum bytes of decoded pixels per image.
+   */
+  ImageLoader(long budget) {
+    this.budget = budget;
+  }
+
+  long getBudget() {
+    return budget;
+  }
+
+  /**
+   * @return budget from {@link #BUDGET_PROPERTY}, or a quarter of the maximum heap size.
+   */
+  static long getDefaultBudget() {
+    return Long.getLong(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 4 >> 20) << 20;
+  }
+
+  /**
+   * Read the image dimensions from the file header without decoding pixels.
+   * @param file image file.
+   * @return width and height, or null if the format is not supported.
+   * @throws IOException if the file cannot be read.
+   */
+  Dimension readSize(File file) throws IOException {
+    try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+      ImageReader reader = reader(input);
+      if (reader == null) {
+        return null;
+      }
+      try {
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Smallest subsampling factor that keeps a region within the budget and, if given,
+   * no smaller than the needed size.
+   * @param width region width.
+   * @param height region height.
+   * @param neededWidth width that is useful for display, 0 for full resolution.
+   * @param neededHeight height that is useful for display, 0 for full resolution.
+   * @return subsampling factor, at least 1.
+   */
+  int subsampling(int width, int height, int neededWidth, int neededHeight) {
+    int factor = 1;
+    if (neededWidth > 0 && neededHeight > 0) {
+      factor = Math.max(1, Math.min(width / neededWidth, height / neededHeight));
+    }
+    while ((long) ceilDiv(width, factor) * ceilDiv(height, factor) * BYTES_PER_PIXEL > budget) {
+      factor++;
+    }
+    return factor;
+  }
+
+  /**
+   * Decode the whole image at the resolution needed for display, within the budget.
+   * @param file image file.
+   * @param neededWidth width that is useful for display, 0 for as much as the budget allows.
+   * @param neededHeight height that is useful for display, 0 for as much as the budget allows.
+   * @return decoded image, or null if the format is not supported.
+   * @throws IOException if the file cannot be read.
+   */
+  BufferedImage read(File file, int neededWidth, int neededHeight) throws IOException {
+    return read(file, null, neededWidth, neededHeight);
+  }
+
+  /**
+   * Decode part of an image at the resolution needed for display, within the budget.
+   * @param file image file.
+   * @param region region in full resolution image coordinates, null for the whole image.
+   * @param neededWidth width that is useful for display, 0 for as much as the budget allows.
+   * @param neededHeight height that is useful for display, 0 for as much as the budget allows.
+   * @return decoded image, or null if the format is not supported.
+   * @throws IOException if the file cannot be read.
+   */
+  BufferedImage read(File file, Rectangle region, int neededWidth, int neededHeight)
+      throws IOException {
+    try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+      return read(input, region, neededWidth, neededHeight);
+    }
+  }
+
+  /**
+   * Decode part of an image held in memory, see {@link #read(File, Rectangle, int, int)}.
+   * @param data content of the image file.
+   * @param region region in full resolution image coordinates, null for the whole image.
+   * @param neededWidth width that is useful for display, 0 for as much as the budget allows.
+   * @param neededHeight height that is useful for display, 0 for as much as the budget allows.
+   * @return decoded image, or null if the format is not supported.
+   * @throws IOException if the data cannot be decoded.
+   */
+  BufferedImage read(byte[] data, Rectangle region, int neededWidth, int neededHeight)
+      throws IOException {
+    try (ImageInputStream input = new ByteArrayImageInputStream(data)) {
+      return read(input, region, neededWidth, neededHeight);
+    }
+  }
+
+  /**
+   * Region decoder of a file for {@link ImageDisplay}, to show the visible part of a picture
+   * at full resolution once it is zoomed into. The size is read once, regions are decoded
+   * from the file within the budget.
+   * @param file image file.
+   * @return region decoder.
+   */
+  ImageDisplay.RegionDecoder regions(File file) {
+    return new ImageDisplay.RegionDecoder() {
+      private Dimension size;
+
+      @Override
+      public synchronized Dimension getSize() throws IOException {
+        if (size == null) {
+          size = readSize(file);
+        }
+        return size;
+      }
+
+      @Override
+      public BufferedImage read(Rectangle region, int neededWidth, int neededHeight)
+          throws IOException {
+        return ImageLoader.this.read(file, region, neededWidth, neededHeight);
+      }
+    };
+  }
+
+  /**
+   * Open an image with a single read of the file: the content is buffered once, and both
+   * the panorama metadata and a preview at the size the view needs come from that buffer.
+   * @param file image file.
+   * @param view size of the view the image is shown in.
+   * @return opened image, or null if the format is not supported.
+   * @throws IOException if the file cannot be read.
+   */
+  LoadedImage open(File file, Dimension view) throws IOException {
+    byte[] data = Files.readAllBytes(file.toPath());
+    PanoramaMetadata metadata =
+        ImageMetaDataUtil.readPanoramaMetadata(new ByteArrayInputStream(data));
+    Dimension needed = ImageDisplay.getNeededImageSize(view, metadata.isEquirectangular());
+    BufferedImage image = read(data, null, needed.width, needed.height);
+    return image == null ? null : new LoadedImage(this, data, image, metadata);
+  }
+
+  private BufferedImage read(ImageInputStream input, Rectangle region, int neededWidth,
+                             int neededHeight) throws IOException {
+    ImageReader reader = reader(input);
+    if (reader == null) {
+      return null;
+    }
+    try {
+      Rectangle bounds = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+      Rectangle source = region == null ? bounds : region.intersection(bounds);
+      if (source.isEmpty()) {
+        throw new IllegalArgumentException("region outside of the image: " + region);
+      }
+      int factor = subsampling(source.width, source.height, neededWidth, neededHeight);
+      ImageReadParam param = reader.getDefaultReadParam();
+      if (!source.equals(bounds)) {
+        param.setSourceRegion(source);
+      }
+      param.setSourceSubsampling(factor, factor, 0, 0);
+      return reader.read(0, param);
+    } finally {
+      reader.dispose();
+    }
+  }
+
+  private static ImageReader reader(ImageInputStream input) {
+    if (input == null) {
+      return null;
+    }
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+    if (!readers.hasNext()) {
+      return null;
+    }
+    ImageReader reader = readers.next();
+    reader.setInput(input, true, true);
+    return reader;
+  }
+
+  private static int ceilDiv(int value, int divisor) {
+    return (value + divisor - 1) / divisor;
+  }
+}
@@ -2,28 +2,58 @@
 // SPDX-License-Identifier: GPL-2.0-or-later
 package tokyo.northside.imageviewer;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
+/**
+ * Reads panorama metadata from image files.
+ */
+public final class ImageMetaDataUtil {
+
+  static final String GPANO_NAMESPACE = "http://ns.google.com/photos/1.0/panorama/";
+
+  private static final String EQUIRECTANGULAR = "equirectangular";
 
-class ImageMetaDataUtil {
+  private static final byte[] XMP_HEADER =
+      "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.ISO_8859_1);
+
+  private static final int SOI = 0xd8;
+  private static final int EOI = 0xd9;
+  private static final int SOS = 0xda;
+  private static final int APP1 = 0xe1;
+
+  /**
+   * StAX factories are expensive to look up and not thread safe, so keep one per thread.
+   */
+  private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY =
+      ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+      });
 
   private ImageMetaDataUtil() {
     // private util.
@@ -36,8 +66,8 @@ class ImageMetaDataUtil {
    */
   static boolean isPanorama(final File f) {
     boolean pano = false;
-    try (FileInputStream fis = new FileInputStream(f)) {
-      pano = isPanorama(fis);
+    try (InputStream is = new BufferedInputStream(new FileInputStream(f))) {
+      pano = isPanorama(is);
     } catch (IOException ignored) {
     }
     return pano;
@@ -49,63 +79,160 @@ class ImageMetaDataUtil {
    * @return true if image is a panorama.
    */
   private static boolean isPanorama(final InputStream is) {
-    boolean pano = false;
+    return EQUIRECTANGULAR.equals(readPanoramaProperties(is).get("ProjectionType"));
+  }
+
+  /**
+   * Read the panorama metadata of an image.
+   * @param is image InputStream, must support mark and reset.
+   * @return metadata, {@link PanoramaMetadata#NONE} if there are no GPano properties.
+   */
+  public static PanoramaMetadata readPanoramaMetadata(final InputStream is) {
+    Map<String, String> properties = readPanoramaProperties(is);
+    return properties.isEmpty() ? PanoramaMetadata.NONE : PanoramaMetadata.of(properties);
+  }
+
+  /**
+   * Read the GPano properties of an image.
+   * <p>
+   * JPEG files are scanned segment by segment up to the image data, so only the head of
+   * the file is read; other formats fall back to commons-imaging.
+   * @param is image InputStream, must support mark and reset.
+   * @return GPano property values by local name, empty if there are none.
+   */
+  static Map<String, String> readPanoramaProperties(final InputStream is) {
     try {
-      pano = checkXmpProjectionType(Imaging.getXmpXml(is, null), "equirectangular");
-    } catch (ImageReadException | IOException ignored) {
+      is.mark(2);
+      DataInputStream in = new DataInputStream(is);
+      if (in.readUnsignedByte() == 0xff && in.readUnsignedByte() == SOI) {
+        byte[] xmp = findJpegXmp(in);
+        if (xmp != null) {
+          return parseGPano(
+              XML_INPUT_FACTORY.get().createXMLStreamReader(new ByteArrayInputStream(xmp)));
+        }
+      } else {
+        is.reset();
+        String xmp = Imaging.getXmpXml(is, null);
+        if (xmp != null) {
+          return parseGPano(XML_INPUT_FACTORY.get().createXMLStreamReader(new StringReader(xmp)));
+        }
+      }
+    } catch (ImageReadException | IOException | XMLStreamException ignored) {
     }
-    return pano;
+    return Collections.emptyMap();
   }
 
   /**
-   * Returns a new secure DOM builder, supporting XML namespaces.
-   * @return a new secure DOM builder, supporting XML namespaces
-   * @throws ParserConfigurationException if a parser cannot be created which satisfies the requested configuration.
+   * Find the XMP packet in the APP1 segments of a JPEG stream positioned right after SOI.
+   * @param in JPEG stream.
+   * @return XMP packet bytes, or null if there is none before the image data.
+   * @throws IOException if the stream cannot be read or ends early.
    */
-  private static DocumentBuilder newSafeDOMBuilder() throws ParserConfigurationException {
-    DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-    builderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-    builderFactory.setNamespaceAware(true);
-    builderFactory.setValidating(false);
-    return builderFactory.newDocumentBuilder();
+  private static byte[] findJpegXmp(final DataInputStream in) throws IOException {
+    while (true) {
+      if (in.readUnsignedByte() != 0xff) {
+        return null;
+      }
+      int marker = in.readUnsignedByte();
+      while (marker == 0xff) {
+        // fill bytes
+        marker = in.readUnsignedByte();
+      }
+      if (marker == SOS || marker == EOI) {
+        return null;
+      }
+      if (marker == 0x01 || marker >= 0xd0 && marker <= 0xd7) {
+        // markers without a segment
+        continue;
+      }
+      int length = in.readUnsignedShort() - 2;
+      if (length < 0) {
+        return null;
+      }
+      if (marker == APP1 && length >= XMP_HEADER.length) {
+        byte[] header = new byte[XMP_HEADER.length];
+        in.readFully(header);
+        length -= header.length;
+        if (Arrays.equals(header, XMP_HEADER)) {
+          byte[] packet = new byte[length];
+          in.readFully(packet);
+          return packet;
+        }
+      }
+      skipFully(in, length);
+    }
+  }
+
+  private static void skipFully(final InputStream in, final long length) throws IOException {
+    long remaining = length;
+    while (remaining > 0) {
+      long skipped = in.skip(remaining);
+      if (skipped <= 0) {
+        if (in.read() < 0) {
+          throw new EOFException();
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
   }
 
   /**
-   * check XMP XML record whether projection type is equirectangle or not.
-   * @param xml_string XMP XML string to input.
-   * @param target_type expected projection type.
-   * @return true is projection type is as same as target_type.
+   * Collect GPano properties written either as attributes or as simple elements.
+   * @param reader XMP packet reader, closed when done.
+   * @return GPano property values by local name.
+   * @throws XMLStreamException if the packet is not well formed.
    */
-  private static boolean checkXmpProjectionType(final String xml_string, final String target_type) {
-    if (xml_string == null || target_type == null) {
-      return false;
-    }
-    boolean res = false;
+  private static Map<String, String> parseGPano(final XMLStreamReader reader)
+      throws XMLStreamException {
+    Map<String, String> properties = new HashMap<>();
     try {
-      DocumentBuilder builder = newSafeDOMBuilder();
-      Document document = builder.parse(new InputSource(new StringReader(xml_string)));
-      Element root = document.getDocumentElement();
-      NodeList xmpMetaNodeList = root.getChildNodes();
-      for (int i = 0; i < xmpMetaNodeList.getLength(); i++) {
-        Node rdfNode = xmpMetaNodeList.item(i);
-        if (rdfNode.getNodeType() == Node.ELEMENT_NODE) {
-          Element rdfElement = (Element) rdfNode;
-          NodeList rdfChildNodeList = rdfElement.getChildNodes();
-          for (int j = 0; j < rdfChildNodeList.getLength(); j++) {
-            Node rdfChildNode = rdfChildNodeList.item(j);
-            if (rdfChildNode.getNodeType() == Node.ELEMENT_NODE) {
-              Element rdfChildElement = (Element) rdfChildNode;
-              String projection = rdfChildElement.getAttributeNS("http://ns.google.com/photos/1.0/panorama/", "ProjectionType");
-              if (target_type.equals(projection)) {
-                res = true;
-                break;
-              }
-            }
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+          if (GPANO_NAMESPACE.equals(reader.getAttributeNamespace(i))) {
+            properties.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i).trim());
           }
         }
+        if (GPANO_NAMESPACE.equals(reader.getNamespaceURI())) {
+          String name = reader.getLocalName();
+          String value = readText(reader);
+          if (value != null) {
+            properties.put(name, value.trim());
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return properties;
+  }
+
+  /**
+   * Read the text of the element the reader is positioned at, up to its end tag.
+   * @param reader XMP packet reader at a start element.
+   * @return text of a text-only element, null for an element with child elements, whose
+   *     subtree is skipped.
+   * @throws XMLStreamException if the packet is not well formed.
+   */
+  private static String readText(final XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    boolean structured = false;
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+        structured = true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS
+          || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+        text.append(reader.getText());
       }
-    } catch (ParserConfigurationException | SAXException | IOException ignored) {
     }
-    return res;
+    return structured ? null : text.toString();
   }
 }
@@ -0,0 +1,160 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import tokyo.northside.imageviewer.panorama.MipMap;
+import tokyo.northside.imageviewer.panorama.TextureFormat;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Decodes images into an {@link ImageCache} in the background, one at a time, so that
+ * browsing to them does not wait for the disk and the decoder.
+ */
+final class ImagePrefetcher {
+
+  private final ImageCache cache;
+  private final ImageLoader loader;
+  private final TextureFormat format;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "image-prefetch");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.NORM_PRIORITY - 1);
+    return thread;
+  });
+  private final Map<File, Future<CachedImage>> pending = new HashMap<>();
+  /**
+   * File being decoded by the executor, null if none.
+   */
+  private File running;
+
+  ImagePrefetcher(ImageCache cache, ImageLoader loader) {
+    this(cache, loader, TextureFormat.SOURCE);
+  }
+
+  /**
+   * @param cache cache to fill.
+   * @param loader image loader; images are decoded within its budget and
+   *     {@link ImageCache#getDecodeBudget(TextureFormat)}, whichever is smaller, so that they
+   *     are cached.
+   * @param format format of the panorama pyramids.
+   */
+  ImagePrefetcher(ImageCache cache, ImageLoader loader, TextureFormat format) {
+    this.cache = cache;
+    final long budget = cache.getDecodeBudget(format);
+    this.loader = loader.getBudget() <= budget ? loader : new ImageLoader(budget);
+    this.format = format;
+  }
+
+  /**
+   * Decode an image at the highest resolution the loader budget allows, with its pyramid.
+   * @param loader image loader.
+   * @param file image file.
+   * @param format format of the pyramid of a panorama.
+   * @return decoded image, or null if the format is not supported.
+   * @throws IOException if the file cannot be read.
+   */
+  static CachedImage decode(ImageLoader loader, File file, TextureFormat format)
+      throws IOException {
+    LoadedImage loaded = loader.open(file, new Dimension());
+    if (loaded == null) {
+      return null;
+    }
+    return new CachedImage(file, loaded.getImage(), loaded.getMetadata(),
+        loaded.getMetadata().isEquirectangular() ? MipMap.build(loaded.getImage(), format) : null);
+  }
+
+  /**
+   * Make these files the ones to prefetch, in order. Queued files that are not in the
+   * list any more are dropped.
+   * @param files files to have in the cache soon.
+   */
+  synchronized void prefetch(List<File> files) {
+    Iterator<Map.Entry<File, Future<CachedImage>>> it = pending.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<File, Future<CachedImage>> entry = it.next();
+      if (entry.getValue().isDone() || !files.contains(entry.getKey())) {
+        // Only cancels queued work, a running decode is let finish.
+        entry.getValue().cancel(false);
+        it.remove();
+      }
+    }
+    for (File file : files) {
+      if (!pending.containsKey(file) && !cache.contains(file)) {
+        pending.put(file, executor.submit(() -> load(file)));
+      }
+    }
+  }
+
+  /**
+   * Take over the decode of a file that is running already, so that it is neither cancelled
+   * by the next {@link #prefetch} nor done again by the caller. A decode that is only queued
+   * is cancelled instead, since the caller can show a subsampled image sooner.
+   * @param file file about to be shown.
+   * @return decode of the file, or null if none is running.
+   */
+  synchronized Future<CachedImage> claim(File file) {
+    Future<CachedImage> future = pending.remove(file);
+    if (future == null || !file.equals(running)) {
+      if (future != null) {
+        future.cancel(false);
+      }
+      return null;
+    }
+    return future;
+  }
+
+  /**
+   * @return the decoded image, also when it is too large for the cache, or null.
+   */
+  private CachedImage load(File file) {
+    synchronized (this) {
+      running = file;
+    }
+    try {
+      CachedImage image = cache.get(file);
+      if (image == null) {
+        image = decode(loader, file, format);
+        if (image != null) {
+          cache.put(image);
+        }
+      }
+      return image;
+    } catch (IOException e) {
+      // Shown with a normal open when browsed to.
+      return null;
+    } finally {
+      synchronized (this) {
+        pending.remove(file);
+        running = null;
+      }
+    }
+  }
+
+  /**
+   * Wait until the files requested so far are decoded.
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  void waitIdle() throws InterruptedException {
+    try {
+      executor.submit(() -> { }).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+}
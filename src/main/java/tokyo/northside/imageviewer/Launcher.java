@@ -0,0 +1,37 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.util.Arrays;
+
+
+/**
+ * Command line entry point that starts the viewer, or a headless tool when the first argument
+ * names one.
+ * <p>
+ * It does not touch any Swing class before choosing, so that the tools can still switch AWT
+ * to headless mode: that is fixed once the first component class is loaded.
+ */
+public final class Launcher {
+
+  private Launcher() {
+    // entry point only
+  }
+
+  /**
+   * @param args {@code --batch} followed by the options of {@link BatchRenderer#main(String[])},
+   *     {@code --tiles} followed by those of {@link TileExporter#main(String[])}, or the
+   *     arguments of {@link MainDialog#main(String[])}.
+   */
+  public static void main(final String[] args) {
+    if (args != null && args.length > 0 && "--batch".equals(args[0])) {
+      BatchRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    if (args != null && args.length > 0 && "--tiles".equals(args[0])) {
+      TileExporter.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    MainDialog.main(args);
+  }
+}
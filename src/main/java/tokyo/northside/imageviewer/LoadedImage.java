@@ -0,0 +1,47 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+
+/**
+ * An image opened by {@link ImageLoader#open}: the first decoded image and the panorama
+ * metadata, plus the buffered file content for refining without reading the file again.
+ */
+final class LoadedImage {
+
+  private final ImageLoader loader;
+  private final byte[] data;
+  private final BufferedImage image;
+  private final PanoramaMetadata metadata;
+
+  LoadedImage(ImageLoader loader, byte[] data, BufferedImage image, PanoramaMetadata metadata) {
+    this.loader = loader;
+    this.data = data;
+    this.image = image;
+    this.metadata = metadata;
+  }
+
+  /**
+   * @return image decoded at the size the view needs.
+   */
+  BufferedImage getImage() {
+    return image;
+  }
+
+  PanoramaMetadata getMetadata() {
+    return metadata;
+  }
+
+  /**
+   * Decode the buffered file at the highest resolution the memory budget allows.
+   * @return refined image, or null if it would not be larger than {@link #getImage()}.
+   * @throws IOException if the data cannot be decoded.
+   */
+  BufferedImage refine() throws IOException {
+    BufferedImage full = loader.read(data, null, 0, 0);
+    return full != null && full.getWidth() > image.getWidth() ? full : null;
+  }
+}
@@ -2,26 +2,87 @@
 // SPDX-License-Identifier: GPL-2.0-or-later
 package tokyo.northside.imageviewer;
 
-import javax.imageio.ImageIO;
+import tokyo.northside.imageviewer.panorama.MipMap;
+
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.filechooser.FileSystemView;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 
 public class MainDialog extends JFrame {
+  private static final String TITLE = "Java 360-Degree panorama photo image viewer";
   private static MainDialog instance;
 
+  /**
+   * Object containing the shown image and that handles zoom and drag
+   */
+  private final ImageDisplay imageDisplay = new ImageDisplay();
+  private final transient ImageCache cache = new ImageCache();
+  /**
+   * Refined images are decoded no larger than fits in the cache with their pyramids.
+   */
+  private final transient ImageLoader loader = new ImageLoader(Math.min(
+      ImageLoader.getDefaultBudget(), cache.getDecodeBudget(imageDisplay.getTextureFormat())));
+  private final transient ImagePrefetcher prefetcher = new ImagePrefetcher(cache, loader,
+      imageDisplay.getTextureFormat());
+  private final transient RenderWorker refineWorker = new RenderWorker("image-refine");
+
+  /**
+   * Images of the browsed directory, and the index of the shown one.
+   */
+  private List<File> files = Collections.emptyList();
+  private int index;
+
   /**
    *  Initialize gui parts and prepare Mapillary360ImageDisplay instance
    */
   private MainDialog() {
-    this.setTitle("Java 360-Degree panorama photo image viewer");
+    this.setTitle(TITLE);
     this.setSize(800, 600);
     this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     this.setLocationRelativeTo(null);
+    this.getContentPane().add(imageDisplay);
+    this.addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosing(WindowEvent e) {
+        refineWorker.shutdown();
+        prefetcher.shutdown();
+        imageDisplay.dispose();
+      }
+    });
+    bindKey(KeyEvent.VK_RIGHT, "next", () -> browse(1));
+    bindKey(KeyEvent.VK_PAGE_DOWN, "next", () -> browse(1));
+    bindKey(KeyEvent.VK_SPACE, "next", () -> browse(1));
+    bindKey(KeyEvent.VK_LEFT, "previous", () -> browse(-1));
+    bindKey(KeyEvent.VK_PAGE_UP, "previous", () -> browse(-1));
+    bindKey(KeyEvent.VK_BACK_SPACE, "previous", () -> browse(-1));
+  }
+
+  private void bindKey(int keyCode, String name, Runnable action) {
+    getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+        .put(KeyStroke.getKeyStroke(keyCode, 0), name);
+    getRootPane().getActionMap().put(name, new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        action.run();
+      }
+    });
   }
 
   /**
@@ -36,23 +97,142 @@ public class MainDialog extends JFrame {
   }
 
   private void open(File file) {
+    files = listImages(file.getAbsoluteFile());
+    index = Math.max(0, files.indexOf(file.getAbsoluteFile()));
+    this.setVisible(true);
+    display(files.get(index));
+  }
+
+  /**
+   * Show the image at an offset from the current one in the browsed directory.
+   */
+  private void browse(int offset) {
+    int next = index + offset;
+    if (next < 0 || next >= files.size()) {
+      return;
+    }
+    index = next;
+    display(files.get(index));
+  }
+
+  private void display(File file) {
+    this.setTitle(TITLE + " - " + file.getName());
+    CachedImage cached = cache.get(file);
+    if (cached != null) {
+      imageDisplay.setImage(cached.getImage(), cached.isPanorama(), cached.getMipMap());
+      imageDisplay.setRegionDecoder(loader.regions(file));
+    } else {
+      load(file, prefetcher.claim(file));
+    }
+    imageDisplay.requestFocus();
+    List<File> neighbours = new ArrayList<>();
+    if (index + 1 < files.size()) {
+      neighbours.add(files.get(index + 1));
+    }
+    if (index > 0) {
+      neighbours.add(files.get(index - 1));
+    }
+    prefetcher.prefetch(neighbours);
+  }
+
+  /**
+   * Show an image that is not cached, decoding it off the Event Dispatch Thread. If the
+   * prefetcher is decoding it already, its result is waited for. Otherwise the file is read
+   * once, a subsampled image is shown first, since huge panoramas would take long to decode
+   * in full, and the image is then refined.
+   * @param prefetched running decode of the file, or null.
+   */
+  private void load(File file, Future<CachedImage> prefetched) {
+    Dimension size = imageDisplay.getSize();
+    refineWorker.submit(() -> {
+      try {
+        CachedImage image = prefetched != null ? getPrefetched(prefetched) : null;
+        if (image != null) {
+          SwingUtilities.invokeLater(() -> {
+            if (isShown(file)) {
+              imageDisplay.setImage(image.getImage(), image.isPanorama(), image.getMipMap());
+              imageDisplay.setRegionDecoder(loader.regions(file));
+            }
+          });
+          return;
+        }
+        LoadedImage loaded = loader.open(file, size);
+        if (loaded == null) {
+          return;
+        }
+        SwingUtilities.invokeLater(() -> {
+          if (isShown(file)) {
+            imageDisplay.setImage(loaded.getImage(), loaded.getMetadata().isEquirectangular());
+            imageDisplay.setRegionDecoder(loader.regions(file));
+          }
+        });
+        refine(file, loaded);
+      } catch (IOException e) {
+        // ignore
+      }
+    });
+  }
+
+  private static CachedImage getPrefetched(Future<CachedImage> prefetched) {
     try {
-      BufferedImage img = ImageIO.read(file);
-      if (img == null)
-        return;
-      /**
-       * Object containing the shown image and that handles zoom and drag
-       */
-      boolean pano = ImageMetaDataUtil.isPanorama(file);
-      ImageDisplay imageDisplay = new ImageDisplay();
-      this.getContentPane().add(imageDisplay);
-      this.setResizable(false);
-      this.setVisible(true);
-      imageDisplay.setImage(img, pano);
-      imageDisplay.requestFocus();
-    } catch (IOException e) {
-      // ignore
+      return prefetched.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | CancellationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Decode the image at the highest resolution the memory budget allows and keep it in the
+   * cache for browsing back to it, with the pyramid of a panorama. Runs on the refine worker.
+   */
+  private void refine(File file, LoadedImage loaded) throws IOException {
+    BufferedImage full = loaded.refine();
+    boolean pano = loaded.getMetadata().isEquirectangular();
+    if (full == null && !pano) {
+      cache.put(new CachedImage(file, loaded.getImage(), loaded.getMetadata(), null));
+      return;
+    }
+    // A panorama already shown at full resolution gets the cached pyramid too, so that the
+    // display and the cache share one.
+    BufferedImage image = full != null ? full : loaded.getImage();
+    CachedImage refined = new CachedImage(file, image, loaded.getMetadata(),
+        pano ? MipMap.build(image, imageDisplay.getTextureFormat()) : null);
+    cache.put(refined);
+    SwingUtilities.invokeLater(() -> {
+      if (isShown(file)) {
+        imageDisplay.updateImage(refined.getImage(), refined.getMipMap());
+      }
+    });
+  }
+
+  /**
+   * Whether a file is the one browsed to. Called on the Event Dispatch Thread.
+   */
+  private boolean isShown(File file) {
+    return file.equals(files.get(index));
+  }
+
+  /**
+   * List the JPEG images next to a file, sorted by name.
+   */
+  private static List<File> listImages(File file) {
+    File parent = file.getParentFile();
+    File[] siblings = parent == null ? null : parent.listFiles((dir, name) -> {
+      String lower = name.toLowerCase(Locale.ROOT);
+      return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    });
+    if (siblings == null) {
+      return Collections.singletonList(file);
+    }
+    List<File> list = new ArrayList<>(Arrays.asList(siblings));
+    if (!list.contains(file)) {
+      list.add(file);
     }
+    Collections.sort(list);
+    return list;
   }
 
   public static void main(final String[] args) {
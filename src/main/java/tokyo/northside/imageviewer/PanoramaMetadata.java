@@ -0,0 +1,142 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * GPano properties of an image.
+ * <p>
+ * Missing or malformed numbers are 0, a missing projection type is null.
+ */
+public final class PanoramaMetadata {
+
+  /**
+   * Metadata of an image without GPano properties.
+   */
+  public static final PanoramaMetadata NONE = of(Collections.emptyMap());
+
+  private final Map<String, String> properties;
+  private final String projectionType;
+  private final int croppedAreaImageWidthPixels;
+  private final int croppedAreaImageHeightPixels;
+  private final int fullPanoWidthPixels;
+  private final int fullPanoHeightPixels;
+  private final int croppedAreaLeftPixels;
+  private final int croppedAreaTopPixels;
+  private final double poseHeadingDegrees;
+  private final double posePitchDegrees;
+  private final double poseRollDegrees;
+
+  private PanoramaMetadata(Map<String, String> properties) {
+    this.properties = Collections.unmodifiableMap(new HashMap<>(properties));
+    projectionType = properties.get("ProjectionType");
+    croppedAreaImageWidthPixels = intValue(properties, "CroppedAreaImageWidthPixels");
+    croppedAreaImageHeightPixels = intValue(properties, "CroppedAreaImageHeightPixels");
+    fullPanoWidthPixels = intValue(properties, "FullPanoWidthPixels");
+    fullPanoHeightPixels = intValue(properties, "FullPanoHeightPixels");
+    croppedAreaLeftPixels = intValue(properties, "CroppedAreaLeftPixels");
+    croppedAreaTopPixels = intValue(properties, "CroppedAreaTopPixels");
+    poseHeadingDegrees = doubleValue(properties, "PoseHeadingDegrees");
+    posePitchDegrees = doubleValue(properties, "PosePitchDegrees");
+    poseRollDegrees = doubleValue(properties, "PoseRollDegrees");
+  }
+
+  /**
+   * Create metadata from GPano properties.
+   * @param properties property values by GPano local name.
+   * @return metadata.
+   */
+  public static PanoramaMetadata of(Map<String, String> properties) {
+    return new PanoramaMetadata(properties);
+  }
+
+  /**
+   * @return true if the image is an equirectangular panorama.
+   */
+  public boolean isEquirectangular() {
+    return "equirectangular".equals(projectionType);
+  }
+
+  /**
+   * @return all GPano property values by local name, including ones without a getter.
+   */
+  public Map<String, String> getProperties() {
+    return properties;
+  }
+
+  public String getProjectionType() {
+    return projectionType;
+  }
+
+  public int getCroppedAreaImageWidthPixels() {
+    return croppedAreaImageWidthPixels;
+  }
+
+  public int getCroppedAreaImageHeightPixels() {
+    return croppedAreaImageHeightPixels;
+  }
+
+  public int getFullPanoWidthPixels() {
+    return fullPanoWidthPixels;
+  }
+
+  public int getFullPanoHeightPixels() {
+    return fullPanoHeightPixels;
+  }
+
+  public int getCroppedAreaLeftPixels() {
+    return croppedAreaLeftPixels;
+  }
+
+  public int getCroppedAreaTopPixels() {
+    return croppedAreaTopPixels;
+  }
+
+  public double getPoseHeadingDegrees() {
+    return poseHeadingDegrees;
+  }
+
+  public double getPosePitchDegrees() {
+    return posePitchDegrees;
+  }
+
+  public double getPoseRollDegrees() {
+    return poseRollDegrees;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof PanoramaMetadata && properties.equals(((PanoramaMetadata) o).properties);
+  }
+
+  @Override
+  public int hashCode() {
+    return properties.hashCode();
+  }
+
+  private static int intValue(Map<String, String> properties, String name) {
+    String value = properties.get(name);
+    if (value != null) {
+      try {
+        return Integer.parseInt(value);
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    return 0;
+  }
+
+  private static double doubleValue(Map<String, String> properties, String name) {
+    String value = properties.get(name);
+    if (value != null) {
+      try {
+        return Double.parseDouble(value);
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    return 0;
+  }
+}
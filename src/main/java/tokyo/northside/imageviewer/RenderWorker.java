@@ -0,0 +1,84 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Single background thread running render jobs off the Event Dispatch Thread.
+ * <p>
+ * Only the most recently submitted job is kept: a job that is superseded before the
+ * worker gets to it is dropped, so a burst of view changes costs one render.
+ */
+class RenderWorker {
+
+  private final AtomicReference<Runnable> pending = new AtomicReference<>();
+  private final ExecutorService executor;
+
+  /**
+   * Create a worker.
+   * @param name name of the worker thread.
+   */
+  RenderWorker(final String name) {
+    executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Post a job, replacing any job that has not started yet. Jobs posted after
+   * {@link #shutdown()} are ignored.
+   * @param job render job.
+   */
+  void submit(final Runnable job) {
+    if (pending.getAndSet(job) == null) {
+      try {
+        executor.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        pending.set(null);
+      }
+    }
+  }
+
+  /**
+   * Check whether a newer job is waiting, so that the running one can give up early.
+   * @return true if a job is pending.
+   */
+  boolean hasPending() {
+    return pending.get() != null;
+  }
+
+  private void drain() {
+    Runnable job;
+    while ((job = pending.getAndSet(null)) != null) {
+      job.run();
+    }
+  }
+
+  /**
+   * Wait until all jobs submitted so far are done or dropped.
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  void flush() throws InterruptedException {
+    try {
+      executor.submit(() -> { }).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Stop the worker thread; pending jobs are dropped.
+   */
+  void shutdown() {
+    pending.set(null);
+    executor.shutdown();
+  }
+}
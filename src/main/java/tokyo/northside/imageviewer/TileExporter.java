@@ -0,0 +1,408 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import tokyo.northside.imageviewer.panorama.CameraPlane;
+import tokyo.northside.imageviewer.panorama.MipMap;
+import tokyo.northside.imageviewer.panorama.RenderScheduler;
+import tokyo.northside.imageviewer.panorama.Sampling;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.joml.Math;
+
+
+/**
+ * Headless exporter of panoramas to multi-resolution cube face tiles.
+ * <p>
+ * Each panorama is decoded once and reduced to a {@link MipMap}. Every level of the export
+ * has six faces, each a 90 degree view rendered by a {@link CameraPlane} one tile at a time
+ * from the matching pyramid level, and the tiles are encoded in parallel. At most a fixed
+ * number of tiles are rendered but not yet written, so memory stays bounded by the decoded
+ * panorama, its pyramid and those tiles whatever the size of the export.
+ * <p>
+ * Tiles are written to {@code <out>/<image>/<level>/<face>/<row>_<column>.<format>}, level 0
+ * being the coarsest. Faces are named f, r, b, l, u and d for front (the centre of the
+ * panorama), right, back, left, up and down; the up and down faces have the front face
+ * towards their bottom and top edge respectively.
+ */
+public final class TileExporter {
+
+  /**
+   * Face names and their directions as yaw and pitch in quarter turns.
+   */
+  private static final String[] FACES = {"f", "r", "b", "l", "u", "d"};
+  private static final int[][] FACE_ROTATIONS = {{0, 0}, {1, 0}, {2, 0}, {-1, 0}, {0, -1}, {0, 1}};
+
+  private final int tileSize;
+  private final int levels;
+  private final int faceSize;
+  private final File outputDirectory;
+  private final String format;
+  private final Sampling sampling;
+  private final RenderScheduler scheduler;
+  private boolean fixedPoint;
+  private final Queue<BufferedImage> buffers = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger images = new AtomicInteger();
+  private final AtomicInteger failures = new AtomicInteger();
+  private final Stage decodeStage = new Stage("decode");
+  private final Stage pyramidStage = new Stage("pyramid");
+  private final Stage renderStage = new Stage("render");
+  private final Stage encodeStage = new Stage("encode");
+
+  /**
+   * Work done by one stage of the pipeline: items, pixels and the time spent on them.
+   * Time is summed over the threads of the stage.
+   */
+  static final class Stage {
+    private final String name;
+    private final AtomicInteger items = new AtomicInteger();
+    private final AtomicLong pixels = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    void add(long pixelCount, long start) {
+      items.incrementAndGet();
+      pixels.addAndGet(pixelCount);
+      nanos.addAndGet(System.nanoTime() - start);
+    }
+
+    int getItems() {
+      return items.get();
+    }
+
+    long getPixels() {
+      return pixels.get();
+    }
+
+    @Override
+    public String toString() {
+      double seconds = nanos.get() / 1e9;
+      return String.format(Locale.ROOT, "%-8s %6d items %9.1f MP in %7.2f s: %8.1f MP/s",
+          name, items.get(), pixels.get() / 1e6, seconds,
+          seconds > 0 ? pixels.get() / 1e6 / seconds : 0);
+    }
+  }
+
+  /**
+   * Create an exporter.
+   * @param tileSize tile edge length in pixels.
+   * @param levels number of levels, or 0 to halve the face size down to one tile per face.
+   * @param faceSize face edge length of the finest level in pixels, or 0 to keep the
+   *     resolution of each panorama at the centre of the faces.
+   * @param outputDirectory directory the tile trees of the images are written to.
+   * @param format image format of the tiles, e.g. jpg or png.
+   * @param sampling resampling filter.
+   * @param scheduler scheduler the tiles are rendered with.
+   */
+  TileExporter(int tileSize, int levels, int faceSize, File outputDirectory, String format,
+               Sampling sampling, RenderScheduler scheduler) {
+    if (tileSize < 1 || levels < 0 || faceSize < 0) {
+      throw new IllegalArgumentException("invalid tile size, level count or face size");
+    }
+    this.tileSize = tileSize;
+    this.levels = levels;
+    this.faceSize = faceSize;
+    this.outputDirectory = outputDirectory;
+    this.format = format;
+    this.sampling = sampling;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Render with the fixed point renderer, see {@link CameraPlane#setFixedPoint(boolean)}.
+   * @param fixedPoint true for the fixed point renderer, false by default.
+   */
+  void setFixedPoint(boolean fixedPoint) {
+    this.fixedPoint = fixedPoint;
+  }
+
+  /**
+   * Face sizes of the levels of an export, coarsest first. Each level halves the next finer
+   * one, rounding up.
+   * @param finest face size of the finest level.
+   * @param tileSize tile edge length.
+   * @param levels number of levels, or 0 to stop at the first level of at most one tile.
+   * @return face size per level.
+   */
+  static int[] getFaceSizes(int finest, int tileSize, int levels) {
+    int count = levels;
+    if (count == 0) {
+      count = 1;
+      for (int size = finest; size > tileSize; size = (size + 1) / 2) {
+        count++;
+      }
+    }
+    int[] sizes = new int[count];
+    int size = finest;
+    for (int level = count - 1; level >= 0; level--) {
+      sizes[level] = size;
+      size = Math.max(1, (size + 1) / 2);
+    }
+    return sizes;
+  }
+
+  /**
+   * Export all images one after another.
+   * @param files panorama files.
+   * @param encodeThreads number of encoder threads.
+   * @param tilesInFlight tiles rendered but not yet written at most.
+   * @param log destination for error messages.
+   */
+  void run(List<File> files, int encodeThreads, int tilesInFlight, PrintStream log) {
+    ExecutorService encoders = Executors.newFixedThreadPool(encodeThreads);
+    Semaphore inFlight = new Semaphore(tilesInFlight);
+    try {
+      for (File file : files) {
+        try {
+          export(file, encoders, inFlight);
+          images.incrementAndGet();
+        } catch (RuntimeException e) {
+          failures.incrementAndGet();
+          log.println(file + ": " + rootCause(e).getMessage());
+        }
+      }
+    } finally {
+      encoders.shutdown();
+    }
+  }
+
+  private void export(File file, ExecutorService encoders, Semaphore inFlight) {
+    long start = System.nanoTime();
+    BufferedImage image = decode(file);
+    decodeStage.add((long) image.getWidth() * image.getHeight(), start);
+    start = System.nanoTime();
+    MipMap source = MipMap.build(image);
+    pyramidStage.add((long) image.getWidth() * image.getHeight(), start);
+    int finest = faceSize > 0 ? faceSize
+        : Math.max(1, (int) java.lang.Math.ceil(image.getWidth() / Math.PI));
+    File root = new File(outputDirectory, baseName(file));
+    int[] sizes = getFaceSizes(finest, tileSize, levels);
+    List<CompletableFuture<Void>> written = new ArrayList<>();
+    for (int level = 0; level < sizes.length; level++) {
+      int size = sizes[level];
+      int tiles = (size + tileSize - 1) / tileSize;
+      for (int face = 0; face < FACES.length; face++) {
+        File directory = new File(root, level + File.separator + FACES[face]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+          throw new IllegalStateException("cannot create directory " + directory);
+        }
+        CameraPlane plane = createFacePlane(size, face);
+        for (int row = 0; row < tiles; row++) {
+          for (int column = 0; column < tiles; column++) {
+            int x = column * tileSize;
+            int y = row * tileSize;
+            int w = Math.min(tileSize, size - x);
+            int h = Math.min(tileSize, size - y);
+            inFlight.acquireUninterruptibly();
+            BufferedImage tile;
+            try {
+              long renderStart = System.nanoTime();
+              tile = acquireBuffer(w, h);
+              plane.mapping(source, tile, x, y, sampling, () -> false);
+              renderStage.add((long) w * h, renderStart);
+            } catch (RuntimeException e) {
+              inFlight.release();
+              throw e;
+            }
+            File out = new File(directory,
+                String.format(Locale.ROOT, "%d_%d.%s", row, column, format));
+            written.add(CompletableFuture.runAsync(() -> encode(tile, out), encoders)
+                .whenComplete((ok, error) -> inFlight.release()));
+          }
+        }
+      }
+    }
+    CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).join();
+  }
+
+  /**
+   * Camera plane with a 90 degree field of view looking at the centre of a face.
+   */
+  private CameraPlane createFacePlane(int size, int face) {
+    CameraPlane plane = new CameraPlane(size, size, size / 2.0d);
+    plane.setRotation(FACE_ROTATIONS[face][0] * Math.PI / 2, FACE_ROTATIONS[face][1] * Math.PI / 2);
+    plane.setScheduler(scheduler);
+    plane.setFixedPoint(fixedPoint);
+    return plane;
+  }
+
+  private static BufferedImage decode(File file) {
+    try {
+      BufferedImage image = ImageIO.read(file);
+      if (image == null) {
+        throw new IllegalArgumentException("unsupported image format");
+      }
+      return image;
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+
+  private void encode(BufferedImage tile, File out) {
+    long start = System.nanoTime();
+    try {
+      if (!ImageIO.write(tile, format, out)) {
+        throw new IllegalArgumentException("no writer for format " + format);
+      }
+      encodeStage.add((long) tile.getWidth() * tile.getHeight(), start);
+    } catch (IOException e) {
+      throw new IllegalStateException(out + ": " + e.getMessage(), e);
+    } finally {
+      releaseBuffer(tile);
+    }
+  }
+
+  /**
+   * Full size tiles are recycled; the smaller ones at the right and bottom edges are not.
+   */
+  private BufferedImage acquireBuffer(int width, int height) {
+    BufferedImage buffer = width == tileSize && height == tileSize ? buffers.poll() : null;
+    return buffer != null ? buffer : new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+  }
+
+  private void releaseBuffer(BufferedImage buffer) {
+    if (buffer.getWidth() == tileSize && buffer.getHeight() == tileSize) {
+      buffers.offer(buffer);
+    }
+  }
+
+  private static String baseName(File file) {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  private static Throwable rootCause(Throwable error) {
+    Throwable cause = error;
+    while (cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause;
+  }
+
+  int getImageCount() {
+    return images.get();
+  }
+
+  int getTileCount() {
+    return encodeStage.getItems();
+  }
+
+  int getFailureCount() {
+    return failures.get();
+  }
+
+  /**
+   * @return decode, pyramid, render and encode stages.
+   */
+  Stage[] getStages() {
+    return new Stage[] {decodeStage, pyramidStage, renderStage, encodeStage};
+  }
+
+  private static void usage(PrintStream out) {
+    out.println("Usage: panoramaviewer --tiles [options] image...");
+    out.println("  --tile-size N      tile edge length in pixels (default: 512)");
+    out.println("  --levels N         number of levels (default: down to one tile per face)");
+    out.println("  --face-size N      face size of the finest level (default: width / pi)");
+    out.println("  --out DIR          output directory (default: current directory)");
+    out.println("  --format png|jpg   tile format (default: jpg)");
+    out.println("  --sampling MODE    NEAREST, BILINEAR or BICUBIC (default: BILINEAR)");
+    out.println("  --fixed-point      render with the fixed point renderer");
+    out.println("  --threads N        render and encoder threads (default: all processors)");
+  }
+
+  /**
+   * Command line entry point.
+   * @param args options and image files, see usage.
+   */
+  public static void main(final String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    List<File> files = new ArrayList<>();
+    File out = new File(".");
+    int tileSize = 512;
+    int levels = 0;
+    int faceSize = 0;
+    String format = "jpg";
+    Sampling sampling = Sampling.BILINEAR;
+    boolean fixedPoint = false;
+    int threads = Runtime.getRuntime().availableProcessors();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--tile-size":
+            tileSize = Integer.parseInt(args[++i]);
+            break;
+          case "--levels":
+            levels = Integer.parseInt(args[++i]);
+            break;
+          case "--face-size":
+            faceSize = Integer.parseInt(args[++i]);
+            break;
+          case "--out":
+            out = new File(args[++i]);
+            break;
+          case "--format":
+            format = args[++i].toLowerCase(Locale.ROOT);
+            break;
+          case "--sampling":
+            sampling = Sampling.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            break;
+          case "--fixed-point":
+            fixedPoint = true;
+            break;
+          case "--threads":
+            threads = Integer.parseInt(args[++i]);
+            break;
+          default:
+            files.add(new File(args[i]));
+            break;
+        }
+      }
+    } catch (RuntimeException e) {
+      System.err.println(e.getMessage());
+      usage(System.err);
+      System.exit(2);
+    }
+    if (files.isEmpty() || tileSize < 1 || levels < 0 || faceSize < 0 || threads < 1) {
+      usage(System.err);
+      System.exit(2);
+    }
+    RenderScheduler scheduler = new RenderScheduler(threads);
+    TileExporter exporter = new TileExporter(tileSize, levels, faceSize, out, format, sampling,
+        scheduler);
+    exporter.setFixedPoint(fixedPoint);
+    long start = System.nanoTime();
+    exporter.run(files, threads, 2 * threads, System.err);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    scheduler.shutdown();
+    for (Stage stage : exporter.getStages()) {
+      System.out.println(stage);
+    }
+    System.out.printf(Locale.ROOT, "%d images, %d tiles in %.2f s: %.2f images/s, %.1f tiles/s%n",
+        exporter.getImageCount(), exporter.getTileCount(), seconds,
+        exporter.getImageCount() / seconds, exporter.getTileCount() / seconds);
+    if (exporter.getFailureCount() > 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.catalog;
+
+import tokyo.northside.imageviewer.ImageMetaDataUtil;
+import tokyo.northside.imageviewer.PanoramaMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+/**
+ * Catalog of the JPEG images below a directory, with their dimensions and panorama metadata.
+ * <p>
+ * Results are kept in an index file keyed by path, size and modification time, so that a
+ * re-scan only examines new and changed files. Files are examined on a bounded pool, since
+ * the work is mostly waiting for I/O.
+ */
+public final class Catalog {
+
+  /**
+   * Default number of files examined at once.
+   */
+  public static final int DEFAULT_THREADS = 8;
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final Path indexFile;
+  private final int threads;
+  private Map<String, CatalogEntry> entries;
+  private int examinedCount;
+
+  /**
+   * Create a catalog that examines {@link #DEFAULT_THREADS} files at once.
+   * @param indexFile index file, read on the first scan and written by {@link #save()}.
+   */
+  public Catalog(Path indexFile) {
+    this(indexFile, DEFAULT_THREADS);
+  }
+
+  /**
+   * Create a catalog.
+   * @param indexFile index file, read on the first scan and written by {@link #save()}.
+   * @param threads number of files examined at once.
+   */
+  public Catalog(Path indexFile, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive: " + threads);
+    }
+    this.indexFile = indexFile;
+    this.threads = threads;
+  }
+
+  /**
+   * Scan a directory tree. Files unchanged since the last scan are taken from the index,
+   * entries of files that are gone are dropped.
+   * @param root directory to scan.
+   * @return entries of all JPEG files below root, sorted by path.
+   * @throws IOException if the directory or the index cannot be read.
+   */
+  public synchronized List<CatalogEntry> scan(Path root) throws IOException {
+    if (entries == null) {
+      entries = CatalogIndex.read(indexFile);
+    }
+    Path prefix = root.toAbsolutePath().normalize();
+    List<CatalogEntry> result = new ArrayList<>();
+    List<Future<CatalogEntry>> pending = new ArrayList<>();
+    ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "catalog-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (attrs.isRegularFile() && isJpeg(file)) {
+            String path = file.toAbsolutePath().normalize().toString();
+            long size = attrs.size();
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            CatalogEntry entry = entries.get(path);
+            if (entry != null && entry.matches(size, lastModified)) {
+              result.add(entry);
+            } else {
+              pending.add(pool.submit(() -> examine(file, path, size, lastModified)));
+            }
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      for (Future<CatalogEntry> future : pending) {
+        result.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while scanning " + root, e);
+    } catch (ExecutionException e) {
+      throw new IOException("cannot examine a file below " + root, e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    examinedCount = pending.size();
+    for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+      if (Paths.get(it.next()).startsWith(prefix)) {
+        it.remove();
+      }
+    }
+    for (CatalogEntry entry : result) {
+      entries.put(entry.getPath(), entry);
+    }
+    result.sort(Comparator.comparing(CatalogEntry::getPath));
+    return result;
+  }
+
+  /**
+   * Write the index file.
+   * @throws IOException if the index cannot be written.
+   */
+  public synchronized void save() throws IOException {
+    CatalogIndex.write(indexFile, entries == null ? Collections.emptyList() : entries.values());
+  }
+
+  /**
+   * @return all entries known to the catalog, sorted by path.
+   */
+  public synchronized List<CatalogEntry> getEntries() {
+    List<CatalogEntry> list = new ArrayList<>(entries == null
+        ? Collections.<CatalogEntry>emptyList() : entries.values());
+    list.sort(Comparator.comparing(CatalogEntry::getPath));
+    return list;
+  }
+
+  /**
+   * @return number of files examined by the last scan, the others came from the index.
+   */
+  public synchronized int getExaminedCount() {
+    return examinedCount;
+  }
+
+  private static boolean isJpeg(Path file) {
+    String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+    return name.endsWith(".jpg") || name.endsWith(".jpeg");
+  }
+
+  /**
+   * Read dimensions and panorama metadata. Both only need the head of the file, which is
+   * read once. A file that cannot be read or parsed is recorded as 0x0 without metadata,
+   * so that it does not fail the scan.
+   */
+  private static CatalogEntry examine(Path file, String path, long size, long lastModified) {
+    byte[] head;
+    try (InputStream is = new BufferedInputStream(Files.newInputStream(file))) {
+      head = readHead(is);
+    } catch (IOException e) {
+      return unreadable(path, size, lastModified);
+    }
+    int width = 0;
+    int height = 0;
+    try (ImageInputStream input =
+             ImageIO.createImageInputStream(new ByteArrayInputStream(head))) {
+      Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+      if (readers != null && readers.hasNext()) {
+        ImageReader reader = readers.next();
+        try {
+          reader.setInput(input, true, true);
+          width = reader.getWidth(0);
+          height = reader.getHeight(0);
+        } finally {
+          reader.dispose();
+        }
+      }
+    } catch (IOException ignored) {
+    } catch (RuntimeException e) {
+      // malformed header
+      return unreadable(path, size, lastModified);
+    }
+    PanoramaMetadata metadata;
+    try {
+      metadata = ImageMetaDataUtil.readPanoramaMetadata(new ByteArrayInputStream(head));
+    } catch (RuntimeException e) {
+      // malformed metadata
+      return unreadable(path, size, lastModified);
+    }
+    return new CatalogEntry(path, size, lastModified, width, height, metadata);
+  }
+
+  private static CatalogEntry unreadable(String path, long size, long lastModified) {
+    return new CatalogEntry(path, size, lastModified, 0, 0, PanoramaMetadata.NONE);
+  }
+
+  /**
+   * Copy the segments of a JPEG stream up to and including the start of scan header, which
+   * hold the dimensions and the metadata. Without a start of scan the whole stream is copied.
+   * @param in JPEG stream.
+   * @return head of the stream.
+   * @throws IOException if the stream cannot be read.
+   */
+  static byte[] readHead(InputStream in) throws IOException {
+    ByteArrayOutputStream head = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) >= 0) {
+      head.write(b);
+      if (b != 0xff) {
+        continue;
+      }
+      int marker = in.read();
+      while (marker == 0xff) {
+        // fill bytes
+        head.write(marker);
+        marker = in.read();
+      }
+      if (marker < 0) {
+        break;
+      }
+      head.write(marker);
+      if (marker == 0xd8 || marker == 0x01 || marker >= 0xd0 && marker <= 0xd7) {
+        // markers without a segment
+        continue;
+      }
+      if (marker == 0xd9) {
+        break;
+      }
+      int high = in.read();
+      int low = in.read();
+      if (low < 0) {
+        break;
+      }
+      head.write(high);
+      head.write(low);
+      byte[] segment = new byte[Math.max(0, (high << 8 | low) - 2)];
+      int read = 0;
+      int n;
+      while (read < segment.length
+          && (n = in.read(segment, read, segment.length - read)) > 0) {
+        read += n;
+      }
+      head.write(segment, 0, read);
+      if (marker == 0xda) {
+        break;
+      }
+    }
+    return head.toByteArray();
+  }
+}
@@ -0,0 +1,76 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.catalog;
+
+import tokyo.northside.imageviewer.PanoramaMetadata;
+
+
+/**
+ * What the catalog knows about one image file.
+ * <p>
+ * Size and modification time identify the file version the entry was made from.
+ * Files that cannot be decoded have zero dimensions.
+ */
+public final class CatalogEntry {
+
+  private final String path;
+  private final long size;
+  private final long lastModified;
+  private final int width;
+  private final int height;
+  private final PanoramaMetadata metadata;
+
+  CatalogEntry(String path, long size, long lastModified, int width, int height,
+               PanoramaMetadata metadata) {
+    this.path = path;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.width = width;
+    this.height = height;
+    this.metadata = metadata;
+  }
+
+  /**
+   * @return absolute path of the file.
+   */
+  public String getPath() {
+    return path;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return modification time in milliseconds since the epoch.
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public PanoramaMetadata getMetadata() {
+    return metadata;
+  }
+
+  /**
+   * @return true if the image is an equirectangular panorama.
+   */
+  public boolean isPanorama() {
+    return metadata.isEquirectangular();
+  }
+
+  /**
+   * @return true if this entry was made from a file with the given size and modification time.
+   */
+  boolean matches(long size, long lastModified) {
+    return this.size == size && this.lastModified == lastModified;
+  }
+}
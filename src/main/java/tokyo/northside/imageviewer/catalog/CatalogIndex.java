@@ -0,0 +1,112 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.catalog;
+
+import tokyo.northside.imageviewer.PanoramaMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Binary catalog index file.
+ * <p>
+ * Layout: magic, version, entry count, then per entry the path, size, modification time,
+ * width, height and the GPano properties as key/value pairs. Strings are modified UTF-8.
+ */
+final class CatalogIndex {
+
+  private static final int MAGIC = 0x50564349; // "PVCI"
+  private static final int VERSION = 1;
+
+  private CatalogIndex() {
+    // utility class
+  }
+
+  /**
+   * Read an index file.
+   * @param file index file.
+   * @return entries by path, empty if the file does not exist, has another version or is
+   *     truncated.
+   * @throws IOException if the file cannot be read.
+   */
+  static Map<String, CatalogEntry> read(Path file) throws IOException {
+    Map<String, CatalogEntry> entries = new HashMap<>();
+    if (!Files.isRegularFile(file)) {
+      return entries;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return entries;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        int width = in.readInt();
+        int height = in.readInt();
+        int propertyCount = in.readUnsignedShort();
+        PanoramaMetadata metadata = PanoramaMetadata.NONE;
+        if (propertyCount > 0) {
+          Map<String, String> properties = new HashMap<>();
+          for (int j = 0; j < propertyCount; j++) {
+            properties.put(in.readUTF(), in.readUTF());
+          }
+          metadata = PanoramaMetadata.of(properties);
+        }
+        entries.put(path, new CatalogEntry(path, size, lastModified, width, height, metadata));
+      }
+    } catch (EOFException e) {
+      entries.clear();
+    }
+    return entries;
+  }
+
+  /**
+   * Write an index file, replacing the old one only once the new one is complete.
+   * @param file index file.
+   * @param entries entries to write.
+   * @throws IOException if the file cannot be written.
+   */
+  static void write(Path file, Collection<CatalogEntry> entries) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (CatalogEntry entry : entries) {
+          out.writeUTF(entry.getPath());
+          out.writeLong(entry.getSize());
+          out.writeLong(entry.getLastModified());
+          out.writeInt(entry.getWidth());
+          out.writeInt(entry.getHeight());
+          Map<String, String> properties = entry.getMetadata().getProperties();
+          out.writeShort(properties.size());
+          for (Map.Entry<String, String> property : properties.entrySet()) {
+            out.writeUTF(property.getKey());
+            out.writeUTF(property.getValue());
+          }
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+}
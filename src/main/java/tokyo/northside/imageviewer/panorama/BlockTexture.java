@@ -0,0 +1,132 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.stream.IntStream;
+
+
+/**
+ * Opaque texture compressed in 4x4 blocks in the manner of DXT1.
+ * <p>
+ * A block is one long: two RGB565 end points in the upper 32 bits and a 2-bit palette
+ * index per texel in the lower 32, texel {@code (x, y)} of the block at bit
+ * {@code 2 * (4 * y + x)}. The palette is the two end points and the two colours a third
+ * and two thirds of the way between them. End points are the texels of lowest and highest
+ * luma, which keeps edges sharp and costs little to encode.
+ */
+final class BlockTexture extends Texture {
+
+  private final long[] blocks;
+  private final int blocksWide;
+
+  private BlockTexture(final int width, final int height) {
+    super(width, height);
+    blocksWide = (width + 3) / 4;
+    blocks = new long[blocksWide * ((height + 3) / 4)];
+  }
+
+  /**
+   * Compress a texture.
+   * @param source texture to compress.
+   * @return compressed copy of source.
+   */
+  static BlockTexture encode(final Texture source) {
+    final BlockTexture texture = new BlockTexture(source.width, source.height);
+    IntStream.range(0, (source.height + 3) / 4).parallel().forEach(by -> {
+      final int[] pixels = new int[16];
+      for (int bx = 0; bx < texture.blocksWide; bx++) {
+        for (int i = 0; i < 16; i++) {
+          // Texels past the right or bottom edge repeat the last column or row.
+          pixels[i] = source.getRGB(Math.min(4 * bx + (i & 3), source.width - 1),
+              Math.min(4 * by + (i >> 2), source.height - 1));
+        }
+        texture.blocks[by * texture.blocksWide + bx] = encodeBlock(pixels);
+      }
+    });
+    return texture;
+  }
+
+  private static long encodeBlock(final int[] pixels) {
+    int min = pixels[0];
+    int max = pixels[0];
+    for (int p : pixels) {
+      if (luma(p) < luma(min)) {
+        min = p;
+      }
+      if (luma(p) > luma(max)) {
+        max = p;
+      }
+    }
+    final int c0 = rgb565(max);
+    final int c1 = rgb565(min);
+    final int[] palette = {expand(c0), expand(c1), mix(expand(c0), expand(c1), 2, 1),
+        mix(expand(c0), expand(c1), 1, 2)};
+    long indices = 0;
+    for (int i = 0; i < 16; i++) {
+      int best = 0;
+      int bestDistance = Integer.MAX_VALUE;
+      for (int k = 0; k < 4; k++) {
+        final int distance = distance(pixels[i], palette[k]);
+        if (distance < bestDistance) {
+          best = k;
+          bestDistance = distance;
+        }
+      }
+      indices |= (long) best << (2 * i);
+    }
+    return (long) c0 << 48 | (long) c1 << 32 | indices;
+  }
+
+  @Override
+  int getRGB(final int x, final int y) {
+    final long block = blocks[(y >> 2) * blocksWide + (x >> 2)];
+    final int index = (int) (block >>> (2 * ((y & 3) << 2 | x & 3))) & 3;
+    final int c0 = expand((int) (block >>> 48) & 0xffff);
+    final int c1 = expand((int) (block >>> 32) & 0xffff);
+    switch (index) {
+      case 0:
+        return c0;
+      case 1:
+        return c1;
+      case 2:
+        return mix(c0, c1, 2, 1);
+      default:
+        return mix(c0, c1, 1, 2);
+    }
+  }
+
+  private static int luma(final int p) {
+    return 77 * (p >> 16 & 0xff) + 150 * (p >> 8 & 0xff) + 29 * (p & 0xff);
+  }
+
+  private static int rgb565(final int p) {
+    return (p >> 8 & 0xf800) | (p >> 5 & 0x07e0) | (p >> 3 & 0x001f);
+  }
+
+  /**
+   * RGB565 to opaque ARGB, replicating the high bits into the low ones.
+   */
+  private static int expand(final int c) {
+    final int r = c >> 11 & 0x1f;
+    final int g = c >> 5 & 0x3f;
+    final int b = c & 0x1f;
+    return 0xff000000 | (r << 3 | r >> 2) << 16 | (g << 2 | g >> 4) << 8 | (b << 3 | b >> 2);
+  }
+
+  /**
+   * Weighted average of two opaque colours, weights a and b out of 3.
+   */
+  private static int mix(final int p, final int q, final int a, final int b) {
+    final int r = ((p >> 16 & 0xff) * a + (q >> 16 & 0xff) * b + 1) / 3;
+    final int g = ((p >> 8 & 0xff) * a + (q >> 8 & 0xff) * b + 1) / 3;
+    final int bl = ((p & 0xff) * a + (q & 0xff) * b + 1) / 3;
+    return 0xff000000 | r << 16 | g << 8 | bl;
+  }
+
+  private static int distance(final int p, final int q) {
+    final int dr = (p >> 16 & 0xff) - (q >> 16 & 0xff);
+    final int dg = (p >> 8 & 0xff) - (q >> 8 & 0xff);
+    final int db = (p & 0xff) - (q & 0xff);
+    return dr * dr + dg * dg + db * db;
+  }
+}
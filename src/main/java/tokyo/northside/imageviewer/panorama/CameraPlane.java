@@ -4,41 +4,61 @@ package tokyo.northside.imageviewer.panorama;
 
 import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.util.stream.IntStream;
+import java.util.function.BooleanSupplier;
 
 import org.joml.Math;
-import org.joml.Vector2d;
+import org.joml.Matrix3d;
 import org.joml.Vector3d;
 
 
 public class CameraPlane {
 
-  private Vector3d[][] vectors;
+  private final int width;
+  private final int height;
+  /**
+   * Distance from the eye to the plane in pixels; sets the field of view.
+   */
+  private volatile double distance;
   private double theta;
-  private double sinTheta;
-  private double cosTheta;
   private double phi;
-  private double sinPhi;
-  private double cosPhi;
+  /**
+   * View rotation. A new instance is published on each change and never modified
+   * afterwards, so a frame keeps a consistent rotation while it is rendered.
+   */
+  private volatile Matrix3d rotation;
+  private volatile boolean fastMath = true;
+  private volatile boolean fixedPoint;
+  private volatile RenderScheduler scheduler = RenderScheduler.getDefault();
+  private volatile ProjectionKernel kernel = ProjectionKernel.getDefault();
+  /**
+   * Incremented on every change of the view.
+   */
+  private volatile long version;
 
+  /**
+   * Create camera plane.
+   * <p>
+   * Camera rays are computed on the fly, so the plane does not hold any per-pixel state.
+   * @param width viewport width in pixels.
+   * @param height viewport height in pixels.
+   * @param distance distance from the eye to the plane in pixels.
+   */
   public CameraPlane(int width, int height, double distance) {
+    this.width = width;
+    this.height = height;
+    this.distance = distance;
     setRotation(0.0, 0.0);
-    vectors = new Vector3d[width][height];
-    IntStream.range(0, height).parallel().forEach(y -> {
-      IntStream.range(0, width).parallel().forEach(x -> {
-        vectors[x][y] = new Vector3d(x - width / 2.0d, y - height / 2.0d, distance).normalize();
-      });
-    });
   }
 
   Vector3d getVector3d(final Point p) {
-    Vector3d res;
-    try {
-      res = rotate(vectors[p.x][p.y], 1);
-    } catch (Exception e) {
-      res = new Vector3d(0, 0, 1);
-    }
-    return res;
+    final Matrix3d m = rotation;
+    final double d = distance;
+    final double rowY = p.y - height / 2.0d;
+    final double vx = rowX(m, rowY, d) + p.x * m.m00;
+    final double vy = rowY(m, rowY, d) + p.x * m.m01;
+    final double vz = rowZ(m, rowY, d) + p.x * m.m02;
+    final double invLength = 1.0d / Math.sqrt(vx * vx + vy * vy + vz * vz);
+    return new Vector3d(vx * invLength, vy * invLength, vz * invLength);
   }
 
   /**
@@ -49,12 +69,14 @@ public class CameraPlane {
     setRotation(getVector3d(p));
   }
 
-  public void setRotationFromDelta(final Point from, final Point to) {
-    Vector3d f1 = vectors[from.x][from.y];
-    Vector3d t1 = vectors[to.x][to.y];
-    double deltaTheta = Math.atan2(f1.x, f1.z) - Math.atan2(t1.x, t1.z);
-    double deltaPhi = Math.atan2(f1.y, Math.sqrt(f1.x * f1.x + f1.z * f1.z))
-        - Math.atan2(t1.y, Math.sqrt(t1.x * t1.x + t1.z * t1.z));
+  public synchronized void setRotationFromDelta(final Point from, final Point to) {
+    final double fx = from.x - width / 2.0d;
+    final double fy = from.y - height / 2.0d;
+    final double tx = to.x - width / 2.0d;
+    final double ty = to.y - height / 2.0d;
+    double deltaTheta = Math.atan2(fx, distance) - Math.atan2(tx, distance);
+    double deltaPhi = Math.atan2(fy, Math.sqrt(fx * fx + distance * distance))
+        - Math.atan2(ty, Math.sqrt(tx * tx + distance * distance));
     double newTheta = theta + deltaTheta;
     double newPhi = phi + deltaPhi;
     setRotation(newTheta, newPhi);
@@ -77,36 +99,403 @@ public class CameraPlane {
   }
 
   Vector3d getRotation() {
-    return new Vector3d(sinTheta, sinPhi, cosPhi * cosTheta);
+    final Matrix3d m = rotation;
+    return new Vector3d(-m.m02, m.m21, m.m22);
   }
 
-  synchronized void setRotation(double theta, double phi) {
+  /**
+   * Set the view rotation: pitch by phi around the x axis, then yaw by theta around the y axis.
+   * <p>
+   * Positive theta turns the view to the right, positive phi turns it down, since texture
+   * rows run from top to bottom.
+   * @param theta yaw in radians.
+   * @param phi pitch in radians.
+   */
+  public synchronized void setRotation(double theta, double phi) {
     this.theta = theta;
-    this.sinTheta = Math.sin(theta);
-    this.cosTheta = Math.cos(theta);
     this.phi = phi;
-    this.sinPhi = Math.sin(phi);
-    this.cosPhi = Math.cos(phi);
+    final double sinTheta = Math.sin(theta);
+    final double cosTheta = Math.cos(theta);
+    final double sinPhi = Math.sin(phi);
+    final double cosPhi = Math.cos(phi);
+    // Columns of the matrix are the images of the x, y and z axes.
+    this.rotation = new Matrix3d(
+        cosTheta, 0, -sinTheta,
+        -sinPhi * sinTheta, cosPhi, -sinPhi * cosTheta,
+        cosPhi * sinTheta, sinPhi, cosPhi * cosTheta);
+    version++;
+  }
+
+  /**
+   * @return viewport width in pixels.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return viewport height in pixels.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Look in the same direction with the same horizontal field of view as another plane,
+   * e.g. one of the viewport size before a resize.
+   * @param other plane to copy the view from.
+   */
+  public void setView(final CameraPlane other) {
+    final double otherTheta;
+    final double otherPhi;
+    final double fov;
+    synchronized (other) {
+      otherTheta = other.theta;
+      otherPhi = other.phi;
+      fov = other.getFov();
+    }
+    synchronized (this) {
+      this.distance = (width / 2.0d) / Math.tan(fov / 2.0d);
+      setRotation(otherTheta, otherPhi);
+    }
+  }
+
+  /**
+   * @return distance from the eye to the plane in pixels.
+   */
+  public double getDistance() {
+    return distance;
+  }
+
+  /**
+   * @return horizontal field of view in radians.
+   */
+  public double getFov() {
+    return 2 * Math.atan2(width / 2.0d, distance);
+  }
+
+  /**
+   * Set the horizontal field of view. Only the distance of the plane changes, so zooming
+   * costs nothing until the next frame is rendered.
+   * @param fov horizontal field of view in radians, between 0 and pi.
+   */
+  public synchronized void setFov(final double fov) {
+    this.distance = (width / 2.0d) / Math.tan(fov / 2.0d);
+    version++;
+  }
+
+  /**
+   * Set the horizontal field of view, turning the view so that the direction under
+   * an anchor point stays about where it is.
+   * @param fov horizontal field of view in radians, between 0 and pi.
+   * @param anchor point within the plane, e.g. the mouse position.
+   */
+  public synchronized void setFov(final double fov, final Point anchor) {
+    final double ax = anchor.x - width / 2.0d;
+    final double ay = anchor.y - height / 2.0d;
+    final double before = distance;
+    final double after = (width / 2.0d) / Math.tan(fov / 2.0d);
+    final double deltaTheta = Math.atan2(ax, before) - Math.atan2(ax, after);
+    final double deltaPhi = Math.atan2(ay, Math.sqrt(ax * ax + before * before))
+        - Math.atan2(ay, Math.sqrt(ax * ax + after * after));
+    this.distance = after;
+    setRotation(theta + deltaTheta, phi + deltaPhi);
+  }
+
+  /**
+   * Returns a number that changes whenever the view of the plane changes.
+   * @return view version.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Allow or forbid fast-math texture coordinates.
+   * <p>
+   * When allowed (the default), {@link #mapping} uses them whenever
+   * {@link UVMapping#isFastMathAccurate(int, int)} holds for the source image.
+   * @param fastMath false to always use the exact trigonometric functions.
+   */
+  public synchronized void setFastMath(final boolean fastMath) {
+    this.fastMath = fastMath;
+    version++;
+  }
+
+  /**
+   * Use the fixed point renderer for nearest and bilinear sampling.
+   * <p>
+   * Rays are then evaluated exactly every few pixels and the source coordinates in between
+   * are interpolated in 16.16 fixed point, which trades a slight loss of accuracy (a sixteenth
+   * of a source texel) for far less floating point work per pixel. Bicubic sampling and
+   * sources wider or taller than 16384 pixels always use the floating point renderer.
+   * @param fixedPoint true to enable the fixed point renderer, false by default.
+   */
+  public synchronized void setFixedPoint(final boolean fixedPoint) {
+    this.fixedPoint = fixedPoint;
+    version++;
+  }
+
+  /**
+   * Set the scheduler that runs the tiles of {@link #mapping}.
+   * @param scheduler render scheduler, e.g. one with bounded parallelism per viewer.
+   */
+  public void setScheduler(final RenderScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Set the kernel that computes the fast-math texture coordinates.
+   * @param kernel projection kernel.
+   */
+  void setKernel(final ProjectionKernel kernel) {
+    this.kernel = kernel;
+  }
+
+  /*
+   * Rotated ray of the first pixel in a scanline. The ray of pixel x in the same
+   * scanline is this plus x times the first matrix column.
+   */
+  private double rowX(final Matrix3d m, final double rowY, final double d) {
+    return m.m00 * (-width / 2.0d) + m.m10 * rowY + m.m20 * d;
   }
 
-  private Vector3d rotate(final Vector3d vec, final int rotationFactor) {
-    double vecX, vecY, vecZ;
-    vecZ = vec.z * cosPhi - vec.y * sinPhi;
-    vecY = vec.z * sinPhi + vec.y * cosPhi;
-    vecX = vecZ * sinTheta * rotationFactor + vec.x * cosTheta;
-    vecZ = vecZ * cosTheta - vec.x * sinTheta * rotationFactor;
-    return new Vector3d(vecX, vecY, vecZ);
+  private double rowY(final Matrix3d m, final double rowY, final double d) {
+    return m.m01 * (-width / 2.0d) + m.m11 * rowY + m.m21 * d;
   }
 
+  private double rowZ(final Matrix3d m, final double rowY, final double d) {
+    return m.m02 * (-width / 2.0d) + m.m12 * rowY + m.m22 * d;
+  }
+
+  /**
+   * Render the view of the camera plane from an equirectangular source image
+   * with nearest neighbour sampling.
+   * <p>
+   * Pixels are read from and written to the backing arrays of common raster types
+   * directly; no objects are allocated per pixel.
+   * @param sourceImage equirectangular panorama.
+   * @param targetImage image to render into.
+   */
   public void mapping(BufferedImage sourceImage, BufferedImage targetImage) {
-    IntStream.range(0, targetImage.getHeight()).parallel().forEach(y -> {
-      IntStream.range(0, targetImage.getWidth()).forEach(x -> {
-        final Vector3d vec = getVector3d(new Point(x, y));
-        final Vector2d p = UVMapping.getTextureCoordinate(vec);
-        targetImage.setRGB(x, y,
-            sourceImage.getRGB((int) (p.x * (sourceImage.getWidth() - 1)), (int) (p.y * (sourceImage.getHeight() - 1)))
-        );
-      });
-    });
+    mapping(sourceImage, targetImage, Sampling.NEAREST);
+  }
+
+  /**
+   * Render the view of the camera plane from an equirectangular source image.
+   * @param sourceImage equirectangular panorama.
+   * @param targetImage image to render into.
+   * @param sampling resampling filter.
+   */
+  public void mapping(BufferedImage sourceImage, BufferedImage targetImage, Sampling sampling) {
+    mapping(Texture.of(sourceImage), targetImage, 0, 0, sampling, () -> false);
+  }
+
+  /**
+   * Render the view of the camera plane from the pyramid level that matches
+   * the current field of view and viewport size.
+   * @param source resolution pyramid of the equirectangular panorama.
+   * @param targetImage image to render into.
+   * @param sampling resampling filter.
+   */
+  public void mapping(MipMap source, BufferedImage targetImage, Sampling sampling) {
+    mapping(source, targetImage, sampling, () -> false);
+  }
+
+  /**
+   * Render the view of the camera plane from the pyramid level that matches
+   * the current field of view and viewport size, giving up when cancelled.
+   * @param source resolution pyramid of the equirectangular panorama.
+   * @param targetImage image to render into.
+   * @param sampling resampling filter.
+   * @param cancelled polled between tiles, e.g. to drop a frame once a newer view is waiting.
+   * @return true if the frame is complete, false if it was cancelled part way.
+   */
+  public boolean mapping(MipMap source, BufferedImage targetImage, Sampling sampling,
+                         BooleanSupplier cancelled) {
+    return mapping(source.getLevel(selectLevel(source)), targetImage, 0, 0, sampling, cancelled);
+  }
+
+  /**
+   * Render a window of the view, e.g. one tile of a large view, from the pyramid level that
+   * matches the whole view.
+   * @param source resolution pyramid of the equirectangular panorama.
+   * @param targetImage image to render into; its size is the size of the window.
+   * @param offsetX left column of the window within the view.
+   * @param offsetY top row of the window within the view.
+   * @param sampling resampling filter.
+   * @param cancelled polled between tiles.
+   * @return true if the window is complete, false if it was cancelled part way.
+   */
+  public boolean mapping(MipMap source, BufferedImage targetImage, int offsetX, int offsetY,
+                         Sampling sampling, BooleanSupplier cancelled) {
+    return mapping(source.getLevel(selectLevel(source)), targetImage, offsetX, offsetY, sampling,
+        cancelled);
+  }
+
+  /**
+   * Render the view from a compiled remap table, compiling and caching it on first use.
+   * <p>
+   * The table is looked up by rotation, field of view, viewport and source level size, so
+   * revisited views and other sources of the same size skip all trigonometry. Falls back
+   * to {@link #mapping(MipMap, BufferedImage, Sampling, BooleanSupplier)} for bicubic
+   * sampling, sources too large for packed coordinates and targets of another size.
+   * @param source resolution pyramid of the equirectangular panorama.
+   * @param targetImage image of the viewport size to render into.
+   * @param sampling resampling filter.
+   * @param cache compiled views.
+   * @param cancelled polled between tiles.
+   * @return true if the frame is complete, false if it was cancelled part way.
+   */
+  public boolean mapping(MipMap source, BufferedImage targetImage, Sampling sampling,
+                         RemapCache cache, BooleanSupplier cancelled) {
+    final Texture texture = source.getLevel(selectLevel(source));
+    if (!RemapTable.supports(sampling) || texture.width > RemapTable.MAX_SOURCE_SIZE
+        || texture.height > RemapTable.MAX_SOURCE_SIZE || targetImage.getWidth() != width
+        || targetImage.getHeight() != height) {
+      return mapping(texture, targetImage, 0, 0, sampling, cancelled);
+    }
+    return cache.get(this, texture.width, texture.height, sampling)
+        .apply(texture, targetImage, scheduler, cancelled);
+  }
+
+  /**
+   * Render the view of the camera plane from a cube map.
+   * <p>
+   * The rays are stepped as for the equirectangular source but need no trigonometry.
+   * Bicubic sampling is done bilinearly.
+   * @param source cube map of the panorama.
+   * @param targetImage image to render into.
+   * @param sampling resampling filter.
+   * @param cancelled polled between tiles.
+   * @return true if the frame is complete, false if it was cancelled part way.
+   */
+  public boolean mapping(CubeMap source, BufferedImage targetImage, Sampling sampling,
+                         BooleanSupplier cancelled) {
+    final Matrix3d m = rotation;
+    final double d = distance;
+    final FrameWriter writer = FrameWriter.of(targetImage);
+    final boolean bilinear = sampling != Sampling.NEAREST;
+    return scheduler.render(targetImage.getWidth(), targetImage.getHeight(), (x0, y0, w, h) -> {
+      final int[] row = new int[w];
+      for (int y = y0; y < y0 + h; y++) {
+        final double rowY = y - height / 2.0d;
+        final double baseX = rowX(m, rowY, d);
+        final double baseY = rowY(m, rowY, d);
+        final double baseZ = rowZ(m, rowY, d);
+        for (int i = 0; i < w; i++) {
+          final int x = x0 + i;
+          row[i] = source.sample(baseX + x * m.m00, baseY + x * m.m01, baseZ + x * m.m02,
+              bilinear);
+        }
+        writer.write(x0, y, row, w);
+      }
+    }, cancelled);
+  }
+
+  synchronized RemapTable.Key getRemapKey(final int sourceWidth, final int sourceHeight,
+                                          final Sampling sampling) {
+    return new RemapTable.Key(theta, phi, distance, width, height, sourceWidth, sourceHeight,
+        sampling, fastMath && UVMapping.isFastMathAccurate(sourceWidth, sourceHeight));
+  }
+
+  /**
+   * Compile the current view for a source size.
+   */
+  RemapTable compile(final int sourceWidth, final int sourceHeight, final Sampling sampling) {
+    final Matrix3d m;
+    final double d;
+    final boolean fast;
+    final RemapTable.Key key;
+    synchronized (this) {
+      m = rotation;
+      d = distance;
+      fast = fastMath && UVMapping.isFastMathAccurate(sourceWidth, sourceHeight);
+      key = getRemapKey(sourceWidth, sourceHeight, sampling);
+    }
+    final int[] coordinates = new int[width * height];
+    final short[] weights = sampling == Sampling.NEAREST ? null : new short[width * height];
+    scheduler.render(width, height, (x0, y0, w, h) -> {
+      final double[] us = new double[w];
+      final double[] vs = new double[w];
+      for (int y = y0; y < y0 + h; y++) {
+        textureCoordinates(m, d, x0, y, w, fast, us, vs);
+        RemapTable.pack(sampling, sourceWidth, sourceHeight, us, vs, w, coordinates, weights,
+            y * width + x0);
+      }
+    }, () -> false);
+    return new RemapTable(key, coordinates, weights);
+  }
+
+  /**
+   * Pick the pyramid level for the current view.
+   * <p>
+   * At the centre of the view one output pixel spans 1 / distance radians, while the
+   * full-resolution source has width / (2 pi) texels per radian.
+   * @param source resolution pyramid.
+   * @return level index.
+   */
+  public int selectLevel(final MipMap source) {
+    return source.selectLevel(source.getLevel(0).width / (2 * Math.PI * distance));
+  }
+
+  private boolean mapping(Texture texture, BufferedImage targetImage, int offsetX, int offsetY,
+                          Sampling sampling, BooleanSupplier cancelled) {
+    final Matrix3d m = rotation;
+    final double d = distance;
+    final FrameWriter writer = FrameWriter.of(targetImage);
+    if (fixedPoint && FixedPointMapping.supports(sampling, texture.width, texture.height)) {
+      return fixedPointMapping(texture, targetImage, offsetX, offsetY, sampling, cancelled);
+    }
+    final boolean fast = fastMath && UVMapping.isFastMathAccurate(texture.width, texture.height);
+    return scheduler.render(targetImage.getWidth(), targetImage.getHeight(), (x0, y0, w, h) -> {
+      final double[] us = new double[w];
+      final double[] vs = new double[w];
+      final int[] row = new int[w];
+      for (int y = y0; y < y0 + h; y++) {
+        textureCoordinates(m, d, offsetX + x0, offsetY + y, w, fast, us, vs);
+        sampling.sample(texture, us, vs, row, w);
+        writer.write(x0, y, row, w);
+      }
+    }, cancelled);
+  }
+
+  private boolean fixedPointMapping(Texture texture, BufferedImage targetImage, int offsetX,
+                                    int offsetY, Sampling sampling, BooleanSupplier cancelled) {
+    final Matrix3d m = rotation;
+    final double d = distance;
+    final FrameWriter writer = FrameWriter.of(targetImage);
+    final FixedPointMapping fixed = new FixedPointMapping(sampling, texture.width, texture.height,
+        fastMath && UVMapping.isFastMathAccurate(texture.width, texture.height));
+    return scheduler.render(targetImage.getWidth(), targetImage.getHeight(), (x0, y0, w, h) -> {
+      final int[] xs = new int[w];
+      final int[] ys = new int[w];
+      final int[] row = new int[w];
+      for (int y = y0; y < y0 + h; y++) {
+        final double rowY = offsetY + y - height / 2.0d;
+        fixed.coordinates(rowX(m, rowY, d), rowY(m, rowY, d), rowZ(m, rowY, d), m.m00, m.m01,
+            m.m02, offsetX + x0, w, xs, ys);
+        fixed.sample(texture, xs, ys, row, w);
+        writer.write(x0, y, row, w);
+      }
+    }, cancelled);
+  }
+
+  /**
+   * Compute the texture coordinates of a span of a scanline.
+   */
+  private void textureCoordinates(final Matrix3d m, final double d, final int x0, final int y,
+                                  final int length, final boolean fast, final double[] us,
+                                  final double[] vs) {
+    final double rowY = y - height / 2.0d;
+    final double baseX = rowX(m, rowY, d);
+    final double baseY = rowY(m, rowY, d);
+    final double baseZ = rowZ(m, rowY, d);
+    if (fast) {
+      kernel.textureCoordinatesFast(baseX, baseY, baseZ, m.m00, m.m01, m.m02, x0, length, us, vs);
+    } else {
+      ProjectionKernel.Scalar.fill(baseX, baseY, baseZ, m.m00, m.m01, m.m02, x0, 0, length,
+          false, us, vs);
+    }
   }
 }
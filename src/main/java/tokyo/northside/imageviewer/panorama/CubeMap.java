@@ -0,0 +1,214 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.stream.IntStream;
+
+
+/**
+ * A panorama resampled onto the six faces of a cube.
+ * <p>
+ * Looking up a ray in a cube map takes a major axis selection and one division instead of
+ * the atan2 and asin of the equirectangular projection, and neighbouring rays read
+ * neighbouring texels of one face even near the poles. Converting costs about one frame
+ * at the face resolution, so it pays off over an interactive session.
+ * <p>
+ * Faces follow the OpenGL cube map layout in the coordinates of {@link UVMapping}: +X, -X,
+ * +Y, -Y, +Z, -Z. Each face has a border of one texel taken from its neighbours, so that
+ * bilinear filtering does not show the cube edges.
+ */
+public final class CubeMap {
+
+  private static final int BORDER = 1;
+  private static final int FACES = 6;
+
+  private final int faceSize;
+  private final TextureFormat format;
+  private final Texture[] faces;
+
+  private CubeMap(final int faceSize, final TextureFormat format, final Texture[] faces) {
+    this.faceSize = faceSize;
+    this.format = format;
+    this.faces = faces;
+  }
+
+  /**
+   * Convert a panorama in packed ints, with faces of {@link #getDefaultFaceSize(MipMap)}.
+   * @param source resolution pyramid of the equirectangular panorama.
+   * @return cube map.
+   */
+  public static CubeMap convert(final MipMap source) {
+    return convert(source, getDefaultFaceSize(source), TextureFormat.PACKED_INT);
+  }
+
+  /**
+   * Face size that keeps the full resolution of the source at the centre of each face, where
+   * a face has the fewest texels per radian: width / pi.
+   * @param source resolution pyramid of the equirectangular panorama.
+   * @return face size in texels.
+   */
+  public static int getDefaultFaceSize(final MipMap source) {
+    return Math.max(1, (int) Math.ceil(source.getLevel(0).width / Math.PI));
+  }
+
+  /**
+   * Convert a panorama, in parallel on the common fork/join pool.
+   * <p>
+   * Every face texel is sampled bilinearly from the coarsest pyramid level that still has a
+   * texel per face texel, with the fast trigonometry where it is accurate to a fraction of
+   * a texel of that level.
+   * @param source resolution pyramid of the equirectangular panorama.
+   * @param faceSize edge length of a face in texels.
+   * @param format format the faces are held in; {@link TextureFormat#SOURCE} holds packed ints.
+   * @return cube map.
+   */
+  public static CubeMap convert(final MipMap source, final int faceSize,
+                                final TextureFormat format) {
+    if (faceSize < 1) {
+      throw new IllegalArgumentException("face size must be positive");
+    }
+    final Texture texture = source.getLevel(source.selectLevel(
+        source.getLevel(0).width / (Math.PI * faceSize)));
+    final boolean fast = UVMapping.isFastMathAccurate(texture.width, texture.height);
+    final int size = faceSize + 2 * BORDER;
+    final int[][] data = new int[FACES][size * size];
+    IntStream.range(0, FACES * size).parallel().forEach(r -> {
+      final int face = r / size;
+      final int row = r % size;
+      final double[] us = new double[size];
+      final double[] vs = new double[size];
+      final double[] dir = new double[3];
+      final double b = 2 * (row - BORDER + 0.5) / faceSize - 1;
+      for (int i = 0; i < size; i++) {
+        direction(face, 2 * (i - BORDER + 0.5) / faceSize - 1, b, dir);
+        final double invLength = 1.0d / Math.sqrt(dir[0] * dir[0] + dir[1] * dir[1]
+            + dir[2] * dir[2]);
+        final double x = dir[0] * invLength;
+        final double z = dir[2] * invLength;
+        us[i] = fast ? UVMapping.getUFast(x, z) : UVMapping.getU(x, z);
+        vs[i] = fast ? UVMapping.getVFast(dir[1] * invLength) : UVMapping.getV(dir[1] * invLength);
+      }
+      final int[] out = new int[size];
+      Sampling.BILINEAR.sample(texture, us, vs, out, size);
+      System.arraycopy(out, 0, data[face], row * size, size);
+    });
+    final TextureFormat faceFormat = format == TextureFormat.SOURCE
+        ? TextureFormat.PACKED_INT : format;
+    final Texture[] faces = new Texture[FACES];
+    for (int face = 0; face < FACES; face++) {
+      final Texture packed = Texture.of(data[face], size, size);
+      faces[face] = faceFormat == TextureFormat.PACKED_INT ? packed : faceFormat.encode(packed);
+      data[face] = null;
+    }
+    return new CubeMap(faceSize, faceFormat, faces);
+  }
+
+  /**
+   * Direction through face coordinates (a, b), each between -1 and 1.
+   */
+  private static void direction(final int face, final double a, final double b,
+                                final double[] dir) {
+    switch (face) {
+      case 0:
+        set(dir, 1, -b, -a);
+        break;
+      case 1:
+        set(dir, -1, -b, a);
+        break;
+      case 2:
+        set(dir, a, 1, b);
+        break;
+      case 3:
+        set(dir, a, -1, -b);
+        break;
+      case 4:
+        set(dir, a, -b, 1);
+        break;
+      default:
+        set(dir, -a, -b, -1);
+        break;
+    }
+  }
+
+  private static void set(final double[] dir, final double x, final double y, final double z) {
+    dir[0] = x;
+    dir[1] = y;
+    dir[2] = z;
+  }
+
+  /**
+   * @return edge length of a face in texels, without the border.
+   */
+  public int getFaceSize() {
+    return faceSize;
+  }
+
+  /**
+   * @return format the faces are held in.
+   */
+  public TextureFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * @return bytes held by the faces, borders included.
+   */
+  public long getByteCount() {
+    final int size = faceSize + 2 * BORDER;
+    return FACES * format.getByteCount(size, size);
+  }
+
+  /**
+   * Sample the cube map along a ray.
+   * @param x x component of the ray, need not be normalised.
+   * @param y y component of the ray.
+   * @param z z component of the ray.
+   * @param bilinear true to interpolate the four nearest texels, false for the nearest one.
+   * @return ARGB pixel.
+   */
+  int sample(final double x, final double y, final double z, final boolean bilinear) {
+    final double ax = Math.abs(x);
+    final double ay = Math.abs(y);
+    final double az = Math.abs(z);
+    final int face;
+    final double major;
+    final double sc;
+    final double tc;
+    if (ax >= ay && ax >= az) {
+      face = x > 0 ? 0 : 1;
+      major = ax;
+      sc = x > 0 ? -z : z;
+      tc = -y;
+    } else if (ay >= az) {
+      face = y > 0 ? 2 : 3;
+      major = ay;
+      sc = x;
+      tc = y > 0 ? z : -z;
+    } else {
+      face = z > 0 ? 4 : 5;
+      major = az;
+      sc = z > 0 ? x : -x;
+      tc = -y;
+    }
+    final Texture texture = faces[face];
+    // Face coordinates between 0 and faceSize.
+    final double scale = 0.5 * faceSize / major;
+    final double s = sc * scale + 0.5 * faceSize;
+    final double t = tc * scale + 0.5 * faceSize;
+    if (!bilinear) {
+      final int maxIndex = faceSize - 1 + BORDER;
+      final int i = (int) s + BORDER;
+      final int j = (int) t + BORDER;
+      return texture.getRGB(i > maxIndex ? maxIndex : i, j > maxIndex ? maxIndex : j);
+    }
+    // The border keeps both neighbours within the face.
+    final double sx = s - 0.5 + BORDER;
+    final double sy = t - 0.5 + BORDER;
+    final int fx = (int) sx;
+    final int fy = (int) sy;
+    final int wx = (int) ((sx - fx) * 256);
+    final int wy = (int) ((sy - fy) * 256);
+    return Sampling.blend(texture.getRGB(fx, fy), texture.getRGB(fx + 1, fy),
+        texture.getRGB(fx, fy + 1), texture.getRGB(fx + 1, fy + 1), wx, wy);
+  }
+}
@@ -0,0 +1,252 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+
+/**
+ * Reprojection of scanlines in 16.16 fixed point source coordinates.
+ * <p>
+ * Texture coordinates change smoothly between neighbouring pixels of a scanline, so rays
+ * are evaluated exactly only every {@link #SPAN} pixels and the source coordinates in
+ * between are stepped with integer additions. A span is halved while its exact midpoint
+ * is further than {@link #MAX_ERROR} from the interpolated one, which happens near the
+ * poles where the longitude turns quickly. The seam is handled by unwrapping the
+ * horizontal coordinate across it and wrapping again when sampling.
+ * <p>
+ * Source coordinates are in texel units, matching {@link Sampling#NEAREST} and
+ * {@link Sampling#BILINEAR} of the floating point renderer. Interpolated coordinates stay
+ * within about {@link #MAX_ERROR} of the ones of the exact rays, so the texel chosen differs
+ * only next to texel edges.
+ */
+final class FixedPointMapping {
+
+  /**
+   * Fractional bits of a source coordinate.
+   */
+  static final int SHIFT = 16;
+  /**
+   * Largest source width or height; unwrapped coordinates must fit in an int.
+   */
+  static final int MAX_SOURCE_SIZE = 1 << 14;
+  /**
+   * Pixels between exactly evaluated rays.
+   */
+  static final int SPAN = 16;
+  /**
+   * Interpolation error in fixed point texels that makes a span subdivide, a sixteenth of a
+   * texel.
+   */
+  static final int MAX_ERROR = 1 << (SHIFT - 4);
+
+  private static final double ONE = 1 << SHIFT;
+
+  private final Sampling sampling;
+  private final boolean fast;
+  private final int width;
+  private final int height;
+  /**
+   * Source texels per unit of u and v.
+   */
+  private final double scaleX;
+  private final double scaleY;
+  private final double offset;
+  /**
+   * Horizontal period in fixed point, a full turn of longitude.
+   */
+  private final int period;
+
+  /**
+   * @param sampling nearest or bilinear.
+   * @param width source width.
+   * @param height source height.
+   * @param fast evaluate the exact rays with the fast-math texture coordinates.
+   */
+  FixedPointMapping(final Sampling sampling, final int width, final int height,
+                    final boolean fast) {
+    if (!supports(sampling, width, height)) {
+      throw new IllegalArgumentException("unsupported fixed point source");
+    }
+    this.sampling = sampling;
+    this.fast = fast;
+    this.width = width;
+    this.height = height;
+    scaleX = width;
+    scaleY = height;
+    offset = sampling == Sampling.NEAREST ? 0 : -0.5;
+    period = (int) scaleX << SHIFT;
+  }
+
+  /**
+   * @param sampling resampling filter.
+   * @param width source width.
+   * @param height source height.
+   * @return true if a source of this size can be rendered with this filter.
+   */
+  static boolean supports(final Sampling sampling, final int width, final int height) {
+    return (sampling == Sampling.NEAREST || sampling == Sampling.BILINEAR) && width > 1
+        && height > 1 && width <= MAX_SOURCE_SIZE && height <= MAX_SOURCE_SIZE;
+  }
+
+  /**
+   * Compute the fixed point source coordinates of a span of a scanline.
+   * <p>
+   * The ray of pixel x is {@code base + x * step}, as in {@link ProjectionKernel}.
+   * @param xs destination for unwrapped horizontal source coordinates.
+   * @param ys destination for vertical source coordinates.
+   */
+  void coordinates(final double baseX, final double baseY, final double baseZ,
+                   final double stepX, final double stepY, final double stepZ, final int x0,
+                   final int length, final int[] xs, final int[] ys) {
+    final Rays rays = new Rays(baseX, baseY, baseZ, stepX, stepY, stepZ, x0);
+    rays.evaluate(0);
+    int a = 0;
+    int ua = rays.u;
+    int va = rays.v;
+    xs[0] = ua;
+    ys[0] = va;
+    while (a < length - 1) {
+      final int b = Math.min(a + SPAN, length - 1);
+      rays.evaluate(b);
+      final int ub = unwrap(rays.u, ua);
+      final int vb = rays.v;
+      fill(rays, a, ua, va, b, ub, vb, xs, ys);
+      a = b;
+      // Back within one turn, so unwrapped values stay far from int overflow.
+      ua = ub < 0 ? ub + period : ub >= period ? ub - period : ub;
+      va = vb;
+    }
+  }
+
+  /**
+   * Fill the pixels after a up to and including b, subdividing where interpolation is off.
+   */
+  private void fill(final Rays rays, final int a, final int ua, final int va, final int b,
+                    final int ub, final int vb, final int[] xs, final int[] ys) {
+    final int n = b - a;
+    if (n > 1) {
+      final int mid = a + n / 2;
+      rays.evaluate(mid);
+      final int um = unwrap(rays.u, ua);
+      final int vm = rays.v;
+      final int ui = ua + (int) ((long) (ub - ua) * (mid - a) / n);
+      final int vi = va + (int) ((long) (vb - va) * (mid - a) / n);
+      if (Math.abs(um - ui) > MAX_ERROR || Math.abs(vm - vi) > MAX_ERROR) {
+        fill(rays, a, ua, va, mid, um, vm, xs, ys);
+        fill(rays, mid, um, vm, b, ub, vb, xs, ys);
+        return;
+      }
+    }
+    final int du = (ub - ua) / n;
+    final int dv = (vb - va) / n;
+    int u = ua;
+    int v = va;
+    for (int i = a + 1; i < b; i++) {
+      u += du;
+      v += dv;
+      xs[i] = u;
+      ys[i] = v;
+    }
+    xs[b] = ub;
+    ys[b] = vb;
+  }
+
+  /**
+   * Move u by whole turns to the side of the reference it is closest to.
+   */
+  private int unwrap(final int u, final int reference) {
+    final int half = period / 2;
+    if (u - reference > half) {
+      return u - period;
+    }
+    if (reference - u > half) {
+      return u + period;
+    }
+    return u;
+  }
+
+  /**
+   * Sample the source at a span of fixed point coordinates.
+   * @param texture source of the size this mapping was made for.
+   * @param xs unwrapped horizontal source coordinates.
+   * @param ys vertical source coordinates.
+   * @param out destination for the ARGB samples.
+   * @param length number of samples.
+   */
+  void sample(final Texture texture, final int[] xs, final int[] ys, final int[] out,
+              final int length) {
+    if (sampling == Sampling.NEAREST) {
+      final int turn = period >> SHIFT;
+      final int maxY = height - 1;
+      for (int i = 0; i < length; i++) {
+        int x = xs[i] >> SHIFT;
+        x = x < 0 ? x + turn : x >= turn ? x - turn : x;
+        final int y = ys[i] >> SHIFT;
+        out[i] = texture.getRGB(x, y < 0 ? 0 : y > maxY ? maxY : y);
+      }
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      final int fx = xs[i] >> SHIFT;
+      final int fy = ys[i] >> SHIFT;
+      final int wx = xs[i] >> (SHIFT - 8) & 0xff;
+      final int wy = ys[i] >> (SHIFT - 8) & 0xff;
+      final int x0 = Sampling.wrap(fx, width);
+      final int x1 = x0 + 1 == width ? 0 : x0 + 1;
+      final int y0 = Sampling.clamp(fy, height);
+      final int y1 = Sampling.clamp(fy + 1, height);
+      out[i] = Sampling.blend(texture.getRGB(x0, y0), texture.getRGB(x1, y0),
+          texture.getRGB(x0, y1), texture.getRGB(x1, y1), wx, wy);
+    }
+  }
+
+  /**
+   * Exact source coordinates of the rays of one scanline.
+   */
+  private final class Rays {
+    private final double baseX;
+    private final double baseY;
+    private final double baseZ;
+    private final double stepX;
+    private final double stepY;
+    private final double stepZ;
+    private final int x0;
+    /**
+     * Source coordinates of the pixel last evaluated.
+     */
+    private int u;
+    private int v;
+
+    Rays(final double baseX, final double baseY, final double baseZ, final double stepX,
+         final double stepY, final double stepZ, final int x0) {
+      this.baseX = baseX;
+      this.baseY = baseY;
+      this.baseZ = baseZ;
+      this.stepX = stepX;
+      this.stepY = stepY;
+      this.stepZ = stepZ;
+      this.x0 = x0;
+    }
+
+    /**
+     * Evaluate the exact ray of pixel i of the span.
+     */
+    void evaluate(final int i) {
+      final int x = x0 + i;
+      final double vx = baseX + x * stepX;
+      final double vy = baseY + x * stepY;
+      final double vz = baseZ + x * stepZ;
+      final double invLength = 1.0d / Math.sqrt(vx * vx + vy * vy + vz * vz);
+      if (fast) {
+        u = toFixed(UVMapping.getUFast(vx, vz) * scaleX + offset);
+        v = toFixed(UVMapping.getVFast(vy * invLength) * scaleY + offset);
+      } else {
+        u = toFixed(UVMapping.getU(vx * invLength, vz * invLength) * scaleX + offset);
+        v = toFixed(UVMapping.getV(vy * invLength) * scaleY + offset);
+      }
+    }
+  }
+
+  private static int toFixed(final double value) {
+    return (int) Math.round(value * ONE);
+  }
+}
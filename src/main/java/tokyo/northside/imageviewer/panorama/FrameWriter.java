@@ -0,0 +1,130 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+
+/**
+ * Write access to the pixels of a target image, one horizontal span at a time.
+ * <p>
+ * Stores the same values {@link BufferedImage#setRGB(int, int, int)} would, but writes
+ * common raster layouts directly into the backing data array. Note that grabbing the
+ * data array makes Java2D stop caching the image in video memory.
+ */
+abstract class FrameWriter {
+
+  final int width;
+
+  FrameWriter(final int width) {
+    this.width = width;
+  }
+
+  /**
+   * Wrap an image, picking direct array access when the raster layout allows it.
+   * @param image target image.
+   * @return writer into image.
+   */
+  static FrameWriter of(final BufferedImage image) {
+    if (Rasters.isPlain(image)) {
+      switch (image.getType()) {
+        case BufferedImage.TYPE_INT_RGB:
+          return new IntWriter(image, 0x00ffffff);
+        case BufferedImage.TYPE_INT_ARGB:
+          return new IntWriter(image, 0xffffffff);
+        case BufferedImage.TYPE_3BYTE_BGR:
+          return new ByteBgrWriter(image);
+        case BufferedImage.TYPE_4BYTE_ABGR:
+          return new ByteAbgrWriter(image);
+        default:
+          break;
+      }
+    }
+    return new ImageWriter(image);
+  }
+
+  /**
+   * Store a span of ARGB pixels.
+   * @param x first column of the span.
+   * @param y row of the span.
+   * @param argb pixel values in default sRGB ARGB.
+   * @param length number of pixels to store.
+   */
+  abstract void write(int x, int y, int[] argb, int length);
+
+  private static final class IntWriter extends FrameWriter {
+    private final int[] data;
+    private final int mask;
+
+    IntWriter(final BufferedImage image, final int mask) {
+      super(image.getWidth());
+      this.data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+      this.mask = mask;
+    }
+
+    @Override
+    void write(final int x, final int y, final int[] argb, final int length) {
+      final int offset = y * width + x;
+      for (int i = 0; i < length; i++) {
+        data[offset + i] = argb[i] & mask;
+      }
+    }
+  }
+
+  private static final class ByteBgrWriter extends FrameWriter {
+    private final byte[] data;
+
+    ByteBgrWriter(final BufferedImage image) {
+      super(image.getWidth());
+      this.data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Override
+    void write(final int x, final int y, final int[] argb, final int length) {
+      int j = (y * width + x) * 3;
+      for (int i = 0; i < length; i++) {
+        final int pixel = argb[i];
+        data[j++] = (byte) pixel;
+        data[j++] = (byte) (pixel >> 8);
+        data[j++] = (byte) (pixel >> 16);
+      }
+    }
+  }
+
+  private static final class ByteAbgrWriter extends FrameWriter {
+    private final byte[] data;
+
+    ByteAbgrWriter(final BufferedImage image) {
+      super(image.getWidth());
+      this.data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Override
+    void write(final int x, final int y, final int[] argb, final int length) {
+      int j = (y * width + x) * 4;
+      for (int i = 0; i < length; i++) {
+        final int pixel = argb[i];
+        data[j++] = (byte) (pixel >> 24);
+        data[j++] = (byte) pixel;
+        data[j++] = (byte) (pixel >> 8);
+        data[j++] = (byte) (pixel >> 16);
+      }
+    }
+  }
+
+  private static final class ImageWriter extends FrameWriter {
+    private final BufferedImage image;
+
+    ImageWriter(final BufferedImage image) {
+      super(image.getWidth());
+      this.image = image;
+    }
+
+    @Override
+    void write(final int x, final int y, final int[] argb, final int length) {
+      image.setRGB(x, y, length, 1, argb, 0, length);
+    }
+  }
+}
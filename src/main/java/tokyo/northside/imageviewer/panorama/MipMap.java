@@ -0,0 +1,179 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+
+
+/**
+ * Resolution pyramid of an equirectangular panorama.
+ * <p>
+ * Level 0 is the source image itself, every further level halves width and height with a
+ * 2x2 box filter; an odd last column or row is dropped. The pyramid can be built in the
+ * background; until a level is ready, renderers fall back to the finest level available.
+ * <p>
+ * Levels are held in a {@link TextureFormat}. With a compact format, level 0 is a copy and
+ * the pyramid lets go of the source image once built; until then level 0 reads the source.
+ */
+public final class MipMap {
+
+  /**
+   * Levels are not reduced below this width.
+   */
+  private static final int MIN_WIDTH = 64;
+
+  private final Texture[] levels;
+  private final TextureFormat format;
+  private volatile int available;
+
+  private MipMap(final BufferedImage source, final TextureFormat format) {
+    int count = 1;
+    for (int w = source.getWidth(); w / 2 >= MIN_WIDTH; w /= 2) {
+      count++;
+    }
+    levels = new Texture[count];
+    levels[0] = Texture.of(source);
+    this.format = format;
+    available = 1;
+  }
+
+  /**
+   * Build a complete pyramid on the calling thread.
+   * @param source equirectangular panorama.
+   * @return pyramid with all levels available.
+   */
+  public static MipMap build(final BufferedImage source) {
+    return build(source, TextureFormat.SOURCE);
+  }
+
+  /**
+   * Build a complete pyramid on the calling thread.
+   * @param source equirectangular panorama.
+   * @param format format of the levels.
+   * @return pyramid with all levels available.
+   */
+  public static MipMap build(final BufferedImage source, final TextureFormat format) {
+    final MipMap mipMap = new MipMap(source, format);
+    mipMap.buildLevels(null);
+    return mipMap;
+  }
+
+  /**
+   * Start building a pyramid in the background.
+   * @param source equirectangular panorama.
+   * @param executor executor running the build.
+   * @param onLevel called from the build thread after each new level, may be null.
+   * @return pyramid with only level 0 available yet.
+   */
+  public static MipMap buildAsync(final BufferedImage source, final Executor executor,
+                                  final Runnable onLevel) {
+    return buildAsync(source, TextureFormat.SOURCE, executor, onLevel);
+  }
+
+  /**
+   * Start building a pyramid in the background.
+   * @param source equirectangular panorama.
+   * @param format format of the levels.
+   * @param executor executor running the build.
+   * @param onLevel called from the build thread after each new level, may be null.
+   * @return pyramid with only level 0 available yet, reading the source.
+   */
+  public static MipMap buildAsync(final BufferedImage source, final TextureFormat format,
+                                  final Executor executor, final Runnable onLevel) {
+    final MipMap mipMap = new MipMap(source, format);
+    executor.execute(() -> mipMap.buildLevels(onLevel));
+    return mipMap;
+  }
+
+  private void buildLevels(final Runnable onLevel) {
+    // Downsample from the full quality levels, not from their compact copies.
+    Texture previous = levels[0];
+    levels[0] = format.encode(previous);
+    // Volatile write, publishes the new level 0 to renderers.
+    available = 1;
+    for (int i = 1; i < levels.length; i++) {
+      final Texture level = downsample(previous);
+      levels[i] = format == TextureFormat.SOURCE ? level : format.encode(level);
+      previous = level;
+      available = i + 1;
+      if (onLevel != null) {
+        onLevel.run();
+      }
+    }
+  }
+
+  /**
+   * @return format of the levels.
+   */
+  public TextureFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * @return number of levels the pyramid has once completely built.
+   */
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /**
+   * @return number of levels that are built already.
+   */
+  public int getAvailableLevels() {
+    return available;
+  }
+
+  /**
+   * @return bytes taken by the levels once built; with {@link TextureFormat#SOURCE}
+   *     level 0 shares the source image and is not counted.
+   */
+  public long getByteCount() {
+    int w = levels[0].width;
+    int h = levels[0].height;
+    long bytes = format.getByteCount(w, h);
+    final TextureFormat levelFormat =
+        format == TextureFormat.SOURCE ? TextureFormat.PACKED_INT : format;
+    for (int i = 1; i < levels.length; i++) {
+      w /= 2;
+      h = Math.max(1, h / 2);
+      bytes += levelFormat.getByteCount(w, h);
+    }
+    return bytes;
+  }
+
+  Texture getLevel(final int level) {
+    return levels[level];
+  }
+
+  /**
+   * Choose the coarsest level that still has at least one texel per output pixel.
+   * @param texelsPerPixel texels of level 0 covered by one output pixel.
+   * @return level index, limited to the levels built so far.
+   */
+  int selectLevel(final double texelsPerPixel) {
+    int level = 0;
+    for (double density = texelsPerPixel; density >= 2; density /= 2) {
+      level++;
+    }
+    return Math.min(level, available - 1);
+  }
+
+  private static Texture downsample(final Texture source) {
+    final int width = Math.max(1, source.width / 2);
+    final int height = Math.max(1, source.height / 2);
+    final int[] data = new int[width * height];
+    IntStream.range(0, height).parallel().forEach(y -> {
+      final int y0 = Math.min(2 * y, source.height - 1);
+      final int y1 = Math.min(2 * y + 1, source.height - 1);
+      for (int x = 0; x < width; x++) {
+        final int x0 = 2 * x;
+        final int x1 = 2 * x + 1;
+        data[y * width + x] = Sampling.blend(source.getRGB(x0, y0), source.getRGB(x1, y0),
+            source.getRGB(x0, y1), source.getRGB(x1, y1), 128, 128);
+      }
+    });
+    return Texture.of(data, width, height);
+  }
+}
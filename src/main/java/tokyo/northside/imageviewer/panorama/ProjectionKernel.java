@@ -0,0 +1,154 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+
+/**
+ * Computes fast-math texture coordinates for a span of camera rays.
+ * <p>
+ * The ray of pixel {@code x} is {@code base + x * step}. The scalar kernel below is always
+ * available. On Java 16 and later, a kernel built on the incubating Vector API is picked up
+ * from the {@code vector} source set when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}; it evaluates the same polynomials in the same
+ * order, so its coordinates agree with the scalar ones to within {@link #TOLERANCE}.
+ * Setting the system property {@value #VECTOR_PROPERTY} to false keeps the scalar kernel.
+ */
+abstract class ProjectionKernel {
+
+  /**
+   * System property that disables the Vector API kernel when set to false.
+   */
+  static final String VECTOR_PROPERTY = "panoramaviewer.vector";
+  /**
+   * Largest difference between the texture coordinates of two kernels.
+   */
+  static final double TOLERANCE = 1e-12;
+
+  private static final String VECTOR_KERNEL =
+      "tokyo.northside.imageviewer.panorama.VectorProjectionKernel";
+
+  private static final class DefaultHolder {
+    private static final ProjectionKernel INSTANCE = select();
+
+    private static ProjectionKernel select() {
+      final ProjectionKernel vector = Boolean.parseBoolean(
+          System.getProperty(VECTOR_PROPERTY, "true")) ? getVector() : null;
+      return vector != null ? vector : Scalar.INSTANCE;
+    }
+  }
+
+  private static final class VectorHolder {
+    private static final ProjectionKernel INSTANCE = loadVector();
+  }
+
+  /**
+   * Returns the kernel used by new camera planes.
+   * @return vector kernel when available and enabled, scalar kernel otherwise.
+   */
+  static ProjectionKernel getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  /**
+   * Returns the scalar kernel.
+   * @return scalar kernel.
+   */
+  static ProjectionKernel getScalar() {
+    return Scalar.INSTANCE;
+  }
+
+  /**
+   * Returns the Vector API kernel.
+   * @return vector kernel, or null when the JVM cannot run it.
+   */
+  static ProjectionKernel getVector() {
+    return VectorHolder.INSTANCE;
+  }
+
+  private static ProjectionKernel loadVector() {
+    try {
+      return (ProjectionKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      // Older JVM, module not added, or no usable vector shape.
+      return null;
+    }
+  }
+
+  /**
+   * Short name for logs and benchmarks.
+   * @return kernel name.
+   */
+  abstract String getName();
+
+  /**
+   * Compute the fast-math texture coordinates of a span of rays.
+   * @param baseX x component of the ray of pixel 0.
+   * @param baseY y component of the ray of pixel 0.
+   * @param baseZ z component of the ray of pixel 0.
+   * @param stepX x component of the ray step between neighbouring pixels.
+   * @param stepY y component of the ray step.
+   * @param stepZ z component of the ray step.
+   * @param x0 first pixel of the span.
+   * @param length number of pixels.
+   * @param us destination for the horizontal texture coordinates.
+   * @param vs destination for the vertical texture coordinates.
+   */
+  abstract void textureCoordinatesFast(double baseX, double baseY, double baseZ, double stepX,
+                                       double stepY, double stepZ, int x0, int length,
+                                       double[] us, double[] vs);
+
+  /**
+   * Scalar kernel, also used for the tail of a span that does not fill a vector.
+   */
+  static final class Scalar extends ProjectionKernel {
+    private static final Scalar INSTANCE = new Scalar();
+
+    @Override
+    String getName() {
+      return "scalar";
+    }
+
+    @Override
+    void textureCoordinatesFast(final double baseX, final double baseY, final double baseZ,
+                                final double stepX, final double stepY, final double stepZ,
+                                final int x0, final int length, final double[] us,
+                                final double[] vs) {
+      fill(baseX, baseY, baseZ, stepX, stepY, stepZ, x0, 0, length, true, us, vs);
+    }
+
+    /**
+     * Fill the elements from {@code from} (inclusive) to {@code to} (exclusive) with the
+     * fast-math texture coordinates.
+     */
+    static void fill(final double baseX, final double baseY, final double baseZ,
+                     final double stepX, final double stepY, final double stepZ, final int x0,
+                     final int from, final int to, final double[] us, final double[] vs) {
+      fill(baseX, baseY, baseZ, stepX, stepY, stepZ, x0, from, to, true, us, vs);
+    }
+
+    /**
+     * Fill the elements from {@code from} (inclusive) to {@code to} (exclusive). This is the
+     * one scalar projection loop, also used for the exact texture coordinates.
+     * @param fast true for the fast-math texture coordinates, false for the exact ones.
+     */
+    static void fill(final double baseX, final double baseY, final double baseZ,
+                     final double stepX, final double stepY, final double stepZ, final int x0,
+                     final int from, final int to, final boolean fast, final double[] us,
+                     final double[] vs) {
+      for (int i = from; i < to; i++) {
+        final int x = x0 + i;
+        final double vx = baseX + x * stepX;
+        final double vy = baseY + x * stepY;
+        final double vz = baseZ + x * stepZ;
+        final double invLength = 1.0d / Math.sqrt(vx * vx + vy * vy + vz * vz);
+        if (fast) {
+          us[i] = UVMapping.getUFast(vx, vz);
+          vs[i] = UVMapping.getVFast(vy * invLength);
+        } else {
+          us[i] = UVMapping.getU(vx * invLength, vz * invLength);
+          vs[i] = UVMapping.getV(vy * invLength);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+
+final class Rasters {
+
+  private Rasters() {
+    // Private constructor to avoid instantiation
+  }
+
+  /**
+   * Check whether the pixels of an image are laid out as one dense, row-major array.
+   * <p>
+   * Sub-images, multi-bank and padded rasters fail the check and have to be accessed
+   * through the {@link BufferedImage} API.
+   * @param image image to check.
+   * @return true when pixel (x, y) is at array index (y * width + x) * pixelStride.
+   */
+  static boolean isPlain(final BufferedImage image) {
+    final WritableRaster raster = image.getRaster();
+    if (raster.getParent() != null || raster.getMinX() != 0 || raster.getMinY() != 0
+        || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+        || raster.getDataBuffer().getNumBanks() != 1 || raster.getDataBuffer().getOffset() != 0) {
+      return false;
+    }
+    final SampleModel model = raster.getSampleModel();
+    if (model instanceof SinglePixelPackedSampleModel) {
+      return ((SinglePixelPackedSampleModel) model).getScanlineStride() == image.getWidth();
+    } else if (model instanceof ComponentSampleModel) {
+      final ComponentSampleModel component = (ComponentSampleModel) model;
+      return component.getScanlineStride() == image.getWidth() * component.getPixelStride();
+    }
+    return false;
+  }
+}
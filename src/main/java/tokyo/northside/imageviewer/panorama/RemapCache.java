@@ -0,0 +1,104 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Compiled views for {@link CameraPlane#mapping(MipMap, java.awt.image.BufferedImage, Sampling,
+ * RemapCache, java.util.function.BooleanSupplier)}, evicting the least recently used ones
+ * to stay within a byte budget.
+ * <p>
+ * Worth it when the same viewpoints are rendered again and again, e.g. saved views
+ * cycled on a kiosk or many panoramas of one camera rendered from the same angles.
+ * A 1920x1080 view takes about 8 MB for nearest and 12 MB for bilinear sampling.
+ */
+public final class RemapCache {
+
+  private final long budget;
+  private final LinkedHashMap<RemapTable.Key, RemapTable> tables =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long byteCount;
+  private long hits;
+  private long misses;
+
+  /**
+   * Create a cache.
+   * @param budget maximum bytes of tables held.
+   */
+  public RemapCache(final long budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * Look up the table of the current view of a plane, compiling it if needed.
+   * @param plane camera plane.
+   * @param sourceWidth source width.
+   * @param sourceHeight source height.
+   * @param sampling NEAREST or BILINEAR.
+   * @return compiled view.
+   */
+  RemapTable get(final CameraPlane plane, final int sourceWidth, final int sourceHeight,
+                 final Sampling sampling) {
+    final RemapTable.Key key = plane.getRemapKey(sourceWidth, sourceHeight, sampling);
+    synchronized (this) {
+      final RemapTable table = tables.get(key);
+      if (table != null) {
+        hits++;
+        return table;
+      }
+      misses++;
+    }
+    final RemapTable table = plane.compile(sourceWidth, sourceHeight, sampling);
+    put(table);
+    return table;
+  }
+
+  private synchronized void put(final RemapTable table) {
+    final RemapTable old = tables.remove(table.getKey());
+    if (old != null) {
+      byteCount -= old.getByteCount();
+    }
+    if (table.getByteCount() > budget) {
+      return;
+    }
+    final Iterator<Map.Entry<RemapTable.Key, RemapTable>> it = tables.entrySet().iterator();
+    while (byteCount + table.getByteCount() > budget) {
+      byteCount -= it.next().getValue().getByteCount();
+      it.remove();
+    }
+    tables.put(table.getKey(), table);
+    byteCount += table.getByteCount();
+  }
+
+  /**
+   * @return number of tables held.
+   */
+  public synchronized int size() {
+    return tables.size();
+  }
+
+  /**
+   * @return bytes of tables held.
+   */
+  public synchronized long getByteCount() {
+    return byteCount;
+  }
+
+  /**
+   * @return number of lookups that found a compiled view.
+   */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /**
+   * @return number of lookups that had to compile the view.
+   */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+}
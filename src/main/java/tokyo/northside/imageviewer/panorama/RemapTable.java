@@ -0,0 +1,189 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * A view compiled into source pixel coordinates, one entry per output pixel.
+ * <p>
+ * Rendering a compiled view is a gather loop without any trigonometry. Coordinates are
+ * packed as {@code y << 16 | x}; bilinear tables also hold the 8-bit blend weights of
+ * each pixel. The output is identical to {@link CameraPlane#mapping} with the same view.
+ * A table depends only on the view and the source size, so it can be applied to any
+ * source of that size.
+ */
+final class RemapTable {
+
+  /**
+   * Largest source width or height a packed coordinate can address.
+   */
+  static final int MAX_SOURCE_SIZE = 1 << 16;
+
+  private final Key key;
+  private final int[] coordinates;
+  /**
+   * Bilinear weights packed as {@code wx << 8 | wy}, null for nearest neighbour.
+   */
+  private final short[] weights;
+
+  RemapTable(final Key key, final int[] coordinates, final short[] weights) {
+    this.key = key;
+    this.coordinates = coordinates;
+    this.weights = weights;
+  }
+
+  /**
+   * @param sampling resampling filter.
+   * @return true if views can be compiled for this filter.
+   */
+  static boolean supports(final Sampling sampling) {
+    return sampling == Sampling.NEAREST || sampling == Sampling.BILINEAR;
+  }
+
+  Key getKey() {
+    return key;
+  }
+
+  /**
+   * @return bytes held by the table.
+   */
+  long getByteCount() {
+    return 4L * coordinates.length + (weights == null ? 0 : 2L * weights.length);
+  }
+
+  /**
+   * Pack the coordinates of a span of texture coordinates into the table.
+   */
+  static void pack(final Sampling sampling, final int sourceWidth, final int sourceHeight,
+                   final double[] us, final double[] vs, final int length,
+                   final int[] coordinates, final short[] weights, final int offset) {
+    if (sampling == Sampling.NEAREST) {
+      for (int i = 0; i < length; i++) {
+        coordinates[offset + i] = Sampling.nearestY(vs[i], sourceHeight) << 16
+            | Sampling.nearestX(us[i], sourceWidth);
+      }
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      final double sx = us[i] * sourceWidth - 0.5;
+      final double sy = vs[i] * sourceHeight - 0.5;
+      final int fx = (int) Math.floor(sx);
+      final int fy = (int) Math.floor(sy);
+      final int wx = (int) ((sx - fx) * 256);
+      int wy = (int) ((sy - fy) * 256);
+      final int x0 = Sampling.wrap(fx, sourceWidth);
+      final int y0 = Sampling.clamp(fy, sourceHeight);
+      if (y0 != fy || fy + 1 >= sourceHeight) {
+        // Clamped at a pole both rows are the same, which blends like a zero weight.
+        wy = 0;
+      }
+      coordinates[offset + i] = y0 << 16 | x0;
+      weights[offset + i] = (short) (wx << 8 | wy);
+    }
+  }
+
+  /**
+   * Render the compiled view.
+   * @param texture source of the size the table was compiled for.
+   * @param targetImage image of the viewport size the table was compiled for.
+   * @param scheduler scheduler running the tiles.
+   * @param cancelled polled between tiles.
+   * @return true if the frame is complete, false if it was cancelled part way.
+   */
+  boolean apply(final Texture texture, final BufferedImage targetImage,
+                final RenderScheduler scheduler, final BooleanSupplier cancelled) {
+    if (texture.width != key.sourceWidth || texture.height != key.sourceHeight
+        || targetImage.getWidth() != key.width || targetImage.getHeight() != key.height) {
+      throw new IllegalArgumentException("remap table does not match the source or target size");
+    }
+    final FrameWriter writer = FrameWriter.of(targetImage);
+    final int width = key.width;
+    return scheduler.render(width, key.height, (x0, y0, w, h) -> {
+      final int[] row = new int[w];
+      for (int y = y0; y < y0 + h; y++) {
+        final int offset = y * width + x0;
+        if (weights == null) {
+          gatherNearest(texture, offset, row, w);
+        } else {
+          gatherBilinear(texture, offset, row, w);
+        }
+        writer.write(x0, y, row, w);
+      }
+    }, cancelled);
+  }
+
+  private void gatherNearest(final Texture texture, final int offset, final int[] row,
+                             final int length) {
+    for (int i = 0; i < length; i++) {
+      final int c = coordinates[offset + i];
+      row[i] = texture.getRGB(c & 0xffff, c >>> 16);
+    }
+  }
+
+  private void gatherBilinear(final Texture texture, final int offset, final int[] row,
+                              final int length) {
+    final int w = texture.width;
+    final int maxY = texture.height - 1;
+    for (int i = 0; i < length; i++) {
+      final int c = coordinates[offset + i];
+      final int wxy = weights[offset + i];
+      final int x0 = c & 0xffff;
+      final int y0 = c >>> 16;
+      final int x1 = x0 + 1 == w ? 0 : x0 + 1;
+      final int y1 = y0 == maxY ? y0 : y0 + 1;
+      row[i] = Sampling.blend(texture.getRGB(x0, y0), texture.getRGB(x1, y0),
+          texture.getRGB(x0, y1), texture.getRGB(x1, y1), wxy >> 8 & 0xff, wxy & 0xff);
+    }
+  }
+
+  /**
+   * Everything a compiled table depends on.
+   */
+  static final class Key {
+    private final double theta;
+    private final double phi;
+    private final double distance;
+    private final int width;
+    private final int height;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final Sampling sampling;
+    private final boolean fast;
+
+    Key(final double theta, final double phi, final double distance, final int width,
+        final int height, final int sourceWidth, final int sourceHeight, final Sampling sampling,
+        final boolean fast) {
+      this.theta = theta;
+      this.phi = phi;
+      this.distance = distance;
+      this.width = width;
+      this.height = height;
+      this.sourceWidth = sourceWidth;
+      this.sourceHeight = sourceHeight;
+      this.sampling = sampling;
+      this.fast = fast;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return Double.compare(theta, other.theta) == 0 && Double.compare(phi, other.phi) == 0
+          && Double.compare(distance, other.distance) == 0 && width == other.width
+          && height == other.height && sourceWidth == other.sourceWidth
+          && sourceHeight == other.sourceHeight && sampling == other.sampling && fast == other.fast;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(theta, phi, distance, width, height, sourceWidth, sourceHeight, sampling,
+          fast);
+    }
+  }
+}
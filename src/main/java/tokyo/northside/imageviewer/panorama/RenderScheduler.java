@@ -0,0 +1,169 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Splits a frame into square tiles and renders them on a dedicated fork/join pool.
+ * <p>
+ * Tiles are small enough for their source and target pixels to stay in cache, and idle
+ * workers steal tiles from busy ones. Each scheduler has its own bounded pool, so viewers
+ * with separate schedulers do not compete for the JVM-wide common pool.
+ */
+public final class RenderScheduler {
+
+  /**
+   * Default tile edge length in pixels.
+   */
+  public static final int DEFAULT_TILE_SIZE = 64;
+
+  private static final class DefaultHolder {
+    private static final RenderScheduler INSTANCE =
+        new RenderScheduler(Runtime.getRuntime().availableProcessors());
+  }
+
+  private final ForkJoinPool pool;
+  private final int tileSize;
+
+  /**
+   * Renders a rectangle of the frame.
+   */
+  @FunctionalInterface
+  interface TileRenderer {
+    /**
+     * Render one tile.
+     * @param x left column.
+     * @param y top row.
+     * @param width tile width.
+     * @param height tile height.
+     */
+    void render(int x, int y, int width, int height);
+  }
+
+  /**
+   * Create a scheduler with the default tile size.
+   * @param parallelism number of render threads.
+   */
+  public RenderScheduler(final int parallelism) {
+    this(parallelism, DEFAULT_TILE_SIZE);
+  }
+
+  /**
+   * Create a scheduler.
+   * @param parallelism number of render threads.
+   * @param tileSize tile edge length in pixels.
+   */
+  public RenderScheduler(final int parallelism, final int tileSize) {
+    if (parallelism < 1 || tileSize < 1) {
+      throw new IllegalArgumentException("parallelism and tile size must be positive");
+    }
+    this.tileSize = tileSize;
+    this.pool = new ForkJoinPool(parallelism, p -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+      thread.setName("panorama-tile-" + thread.getPoolIndex());
+      thread.setDaemon(true);
+      return thread;
+    }, null, false);
+  }
+
+  /**
+   * Returns the scheduler shared by renderers that are not given their own one.
+   * @return scheduler using all available processors.
+   */
+  public static RenderScheduler getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  /**
+   * @return number of render threads.
+   */
+  public int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * @return tile edge length in pixels.
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Render a frame tile by tile and wait for completion.
+   * @param width frame width.
+   * @param height frame height.
+   * @param renderer tile renderer, called concurrently.
+   * @param cancelled polled before each tile; once it returns true no further tiles start.
+   * @return true if all tiles were rendered, false if the frame was cancelled.
+   */
+  boolean render(final int width, final int height, final TileRenderer renderer,
+                 final BooleanSupplier cancelled) {
+    final int columns = (width + tileSize - 1) / tileSize;
+    final int rows = (height + tileSize - 1) / tileSize;
+    if (columns <= 0 || rows <= 0) {
+      return true;
+    }
+    final TileTask task =
+        new TileTask(0, columns * rows, columns, width, height, renderer, cancelled);
+    pool.invoke(task);
+    return task.completedAll();
+  }
+
+  /**
+   * Stop the render threads. The scheduler must not be used afterwards.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  private final class TileTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int from;
+    private final int to;
+    private final int columns;
+    private final int width;
+    private final int height;
+    private final transient TileRenderer renderer;
+    private final transient BooleanSupplier cancelled;
+    private volatile boolean skipped;
+
+    TileTask(final int from, final int to, final int columns, final int width, final int height,
+             final TileRenderer renderer, final BooleanSupplier cancelled) {
+      this.from = from;
+      this.to = to;
+      this.columns = columns;
+      this.width = width;
+      this.height = height;
+      this.renderer = renderer;
+      this.cancelled = cancelled;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        final int mid = (from + to) >>> 1;
+        final TileTask left = new TileTask(from, mid, columns, width, height, renderer, cancelled);
+        final TileTask right = new TileTask(mid, to, columns, width, height, renderer, cancelled);
+        invokeAll(left, right);
+        skipped = left.skipped || right.skipped;
+        return;
+      }
+      if (cancelled.getAsBoolean()) {
+        skipped = true;
+        return;
+      }
+      final int x = (from % columns) * tileSize;
+      final int y = (from / columns) * tileSize;
+      renderer.render(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+    }
+
+    boolean completedAll() {
+      return !skipped;
+    }
+  }
+}
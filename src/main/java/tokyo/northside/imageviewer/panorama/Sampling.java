@@ -0,0 +1,162 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+/**
+ * Resampling filter used when reading the equirectangular source.
+ * <p>
+ * All modes wrap around the horizontal seam of the panorama and clamp at the poles, and
+ * all place texel centres at {@code (x + 0.5) / width}, so that switching modes does not
+ * shift the view. Each mode has its own inner loop so that cheaper modes pay nothing for
+ * the others.
+ */
+public enum Sampling {
+  /** Nearest neighbour: fastest, shimmers while panning. */
+  NEAREST {
+    @Override
+    void sample(final Texture texture, final double[] us, final double[] vs, final int[] out,
+                final int length) {
+      final int w = texture.width;
+      final int h = texture.height;
+      for (int i = 0; i < length; i++) {
+        out[i] = texture.getRGB(nearestX(us[i], w), nearestY(vs[i], h));
+      }
+    }
+  },
+  /** Bilinear interpolation of the four nearest texels. */
+  BILINEAR {
+    @Override
+    void sample(final Texture texture, final double[] us, final double[] vs, final int[] out,
+                final int length) {
+      final int w = texture.width;
+      final int h = texture.height;
+      for (int i = 0; i < length; i++) {
+        final double sx = us[i] * w - 0.5;
+        final double sy = vs[i] * h - 0.5;
+        final int fx = (int) Math.floor(sx);
+        final int fy = (int) Math.floor(sy);
+        final int wx = (int) ((sx - fx) * 256);
+        final int wy = (int) ((sy - fy) * 256);
+        final int x0 = wrap(fx, w);
+        final int x1 = x0 + 1 == w ? 0 : x0 + 1;
+        final int y0 = clamp(fy, h);
+        final int y1 = clamp(fy + 1, h);
+        out[i] = blend(texture.getRGB(x0, y0), texture.getRGB(x1, y0),
+            texture.getRGB(x0, y1), texture.getRGB(x1, y1), wx, wy);
+      }
+    }
+  },
+  /** Catmull-Rom bicubic interpolation of the sixteen nearest texels. */
+  BICUBIC {
+    @Override
+    void sample(final Texture texture, final double[] us, final double[] vs, final int[] out,
+                final int length) {
+      final int w = texture.width;
+      final int h = texture.height;
+      final double[] wxs = new double[4];
+      final double[] wys = new double[4];
+      final int[] xs = new int[4];
+      final int[] ys = new int[4];
+      for (int i = 0; i < length; i++) {
+        final double sx = us[i] * w - 0.5;
+        final double sy = vs[i] * h - 0.5;
+        final int fx = (int) Math.floor(sx);
+        final int fy = (int) Math.floor(sy);
+        catmullRom(sx - fx, wxs);
+        catmullRom(sy - fy, wys);
+        for (int k = 0; k < 4; k++) {
+          xs[k] = wrap(fx - 1 + k, w);
+          ys[k] = clamp(fy - 1 + k, h);
+        }
+        double a = 0;
+        double r = 0;
+        double g = 0;
+        double b = 0;
+        for (int ky = 0; ky < 4; ky++) {
+          for (int kx = 0; kx < 4; kx++) {
+            final int pixel = texture.getRGB(xs[kx], ys[ky]);
+            final double weight = wxs[kx] * wys[ky];
+            a += (pixel >>> 24) * weight;
+            r += (pixel >> 16 & 0xff) * weight;
+            g += (pixel >> 8 & 0xff) * weight;
+            b += (pixel & 0xff) * weight;
+          }
+        }
+        out[i] = channel(a) << 24 | channel(r) << 16 | channel(g) << 8 | channel(b);
+      }
+    }
+  };
+
+  /**
+   * Sample the texture at a span of texture coordinates.
+   * @param texture source texture.
+   * @param us horizontal texture coordinates in the range between 0 and 1.
+   * @param vs vertical texture coordinates in the range between 0 and 1.
+   * @param out destination for the ARGB samples.
+   * @param length number of samples.
+   */
+  abstract void sample(Texture texture, double[] us, double[] vs, int[] out, int length);
+
+  /**
+   * Column of the texel whose centre is nearest to a horizontal texture coordinate.
+   * @param u texture coordinate, between 0 and 1.
+   * @param width texture width.
+   * @return column, wrapped around the seam.
+   */
+  static int nearestX(final double u, final int width) {
+    final int x = (int) (u * width);
+    return x >= width ? x - width : x < 0 ? 0 : x;
+  }
+
+  /**
+   * Row of the texel whose centre is nearest to a vertical texture coordinate.
+   * @param v texture coordinate, between 0 and 1.
+   * @param height texture height.
+   * @return row, clamped at the poles.
+   */
+  static int nearestY(final double v, final int height) {
+    final int y = (int) (v * height);
+    return y >= height ? height - 1 : y < 0 ? 0 : y;
+  }
+
+  static int wrap(final int x, final int width) {
+    final int r = x % width;
+    return r < 0 ? r + width : r;
+  }
+
+  static int clamp(final int y, final int height) {
+    return y < 0 ? 0 : y >= height ? height - 1 : y;
+  }
+
+  /**
+   * Bilinear blend of four ARGB pixels with 8-bit fixed point weights.
+   */
+  static int blend(final int p00, final int p10, final int p01, final int p11, final int wx,
+                   final int wy) {
+    final int w00 = (256 - wx) * (256 - wy);
+    final int w10 = wx * (256 - wy);
+    final int w01 = (256 - wx) * wy;
+    final int w11 = wx * wy;
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      final int c = ((p00 >>> shift & 0xff) * w00 + (p10 >>> shift & 0xff) * w10
+          + (p01 >>> shift & 0xff) * w01 + (p11 >>> shift & 0xff) * w11 + 0x8000) >>> 16;
+      result |= c << shift;
+    }
+    return result;
+  }
+
+  private static void catmullRom(final double t, final double[] weights) {
+    final double t2 = t * t;
+    final double t3 = t2 * t;
+    weights[0] = 0.5 * (-t3 + 2 * t2 - t);
+    weights[1] = 0.5 * (3 * t3 - 5 * t2 + 2);
+    weights[2] = 0.5 * (-3 * t3 + 4 * t2 + t);
+    weights[3] = 0.5 * (t3 - t2);
+  }
+
+  private static int channel(final double value) {
+    final long c = Math.round(value);
+    return c < 0 ? 0 : c > 255 ? 255 : (int) c;
+  }
+}
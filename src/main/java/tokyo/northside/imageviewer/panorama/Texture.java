@@ -0,0 +1,137 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+
+/**
+ * Read access to the pixels of a source image.
+ * <p>
+ * Common raster layouts are read straight from the backing data array, everything else
+ * goes through {@link BufferedImage#getRGB(int, int)}. Either way the returned value is
+ * the same default sRGB ARGB pixel that {@code getRGB} returns.
+ */
+abstract class Texture {
+
+  final int width;
+  final int height;
+
+  Texture(final int width, final int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Wrap an image, picking direct array access when the raster layout allows it.
+   * @param image source image.
+   * @return texture reading from image.
+   */
+  static Texture of(final BufferedImage image) {
+    if (Rasters.isPlain(image)) {
+      switch (image.getType()) {
+        case BufferedImage.TYPE_INT_RGB:
+          return new IntTexture(intData(image), image.getWidth(), image.getHeight(),
+              0xff000000, 0x00ffffff);
+        case BufferedImage.TYPE_INT_ARGB:
+          return new IntTexture(intData(image), image.getWidth(), image.getHeight(), 0, 0xffffffff);
+        case BufferedImage.TYPE_3BYTE_BGR:
+          return new ByteBgrTexture(image);
+        case BufferedImage.TYPE_4BYTE_ABGR:
+          return new ByteAbgrTexture(image);
+        default:
+          break;
+      }
+    }
+    return new ImageTexture(image);
+  }
+
+  /**
+   * Wrap an array of ARGB pixels.
+   * @param argb pixels in row-major order.
+   * @param width width in pixels.
+   * @param height height in pixels.
+   * @return texture reading from argb.
+   */
+  static Texture of(final int[] argb, final int width, final int height) {
+    return new IntTexture(argb, width, height, 0, 0xffffffff);
+  }
+
+  /**
+   * Returns the pixel at (x, y) in default sRGB ARGB.
+   * @param x column, 0 &lt;= x &lt; width.
+   * @param y row, 0 &lt;= y &lt; height.
+   * @return ARGB pixel value.
+   */
+  abstract int getRGB(int x, int y);
+
+  private static int[] intData(final BufferedImage image) {
+    return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+  }
+
+  private static final class IntTexture extends Texture {
+    private final int[] data;
+    private final int alpha;
+    private final int mask;
+
+    IntTexture(final int[] data, final int width, final int height, final int alpha,
+               final int mask) {
+      super(width, height);
+      this.data = data;
+      this.alpha = alpha;
+      this.mask = mask;
+    }
+
+    @Override
+    int getRGB(final int x, final int y) {
+      return alpha | (data[y * width + x] & mask);
+    }
+  }
+
+  private static final class ByteBgrTexture extends Texture {
+    private final byte[] data;
+
+    ByteBgrTexture(final BufferedImage image) {
+      super(image.getWidth(), image.getHeight());
+      this.data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Override
+    int getRGB(final int x, final int y) {
+      final int i = (y * width + x) * 3;
+      return 0xff000000 | (data[i + 2] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | data[i] & 0xff;
+    }
+  }
+
+  private static final class ByteAbgrTexture extends Texture {
+    private final byte[] data;
+
+    ByteAbgrTexture(final BufferedImage image) {
+      super(image.getWidth(), image.getHeight());
+      this.data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Override
+    int getRGB(final int x, final int y) {
+      final int i = (y * width + x) * 4;
+      return (data[i] & 0xff) << 24 | (data[i + 3] & 0xff) << 16 | (data[i + 2] & 0xff) << 8
+          | data[i + 1] & 0xff;
+    }
+  }
+
+  private static final class ImageTexture extends Texture {
+    private final BufferedImage image;
+
+    ImageTexture(final BufferedImage image) {
+      super(image.getWidth(), image.getHeight());
+      this.image = image;
+    }
+
+    @Override
+    int getRGB(final int x, final int y) {
+      return image.getRGB(x, y);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.stream.IntStream;
+
+
+/**
+ * In-memory layout of the levels of a {@link MipMap}.
+ * <p>
+ * The compact formats copy the source into their own arrays, so the decoded image can be
+ * dropped once the pyramid is built. They are opaque: alpha is not kept.
+ */
+public enum TextureFormat {
+  /** Level 0 reads the decoded image in place; further levels are packed ints. */
+  SOURCE {
+    @Override
+    public long getByteCount(final int width, final int height) {
+      return 0;
+    }
+
+    @Override
+    Texture encode(final Texture source) {
+      return source;
+    }
+  },
+  /** One ARGB int per texel, 4 bytes: the fastest to sample. */
+  PACKED_INT {
+    @Override
+    public long getByteCount(final int width, final int height) {
+      return 4L * width * height;
+    }
+
+    @Override
+    Texture encode(final Texture source) {
+      final int width = source.width;
+      final int[] data = new int[width * source.height];
+      IntStream.range(0, source.height).parallel().forEach(y -> {
+        for (int x = 0; x < width; x++) {
+          data[y * width + x] = source.getRGB(x, y);
+        }
+      });
+      return Texture.of(data, width, source.height);
+    }
+  },
+  /** Planar YCbCr with chroma subsampled 2x2, 1.5 bytes per texel. */
+  YCBCR_420 {
+    @Override
+    public long getByteCount(final int width, final int height) {
+      return (long) width * height + 2L * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    @Override
+    Texture encode(final Texture source) {
+      return YCbCrTexture.encode(source);
+    }
+  },
+  /**
+   * 4x4 blocks of two RGB565 end points and 2-bit indices, like DXT1, half a byte per
+   * texel. Smooth gradients band slightly.
+   */
+  BLOCK_COMPRESSED {
+    @Override
+    public long getByteCount(final int width, final int height) {
+      return 8L * ((width + 3) / 4) * ((height + 3) / 4);
+    }
+
+    @Override
+    Texture encode(final Texture source) {
+      return BlockTexture.encode(source);
+    }
+  };
+
+  /**
+   * Bytes a texture of this format and size holds in its own arrays.
+   * @param width width in texels.
+   * @param height height in texels.
+   * @return byte count, 0 for {@link #SOURCE} which shares the decoded image.
+   */
+  public abstract long getByteCount(int width, int height);
+
+  /**
+   * Copy a texture into this format.
+   * @param source texture to convert.
+   * @return texture in this format; {@link #SOURCE} returns source itself.
+   */
+  abstract Texture encode(Texture source);
+}
@@ -8,6 +8,23 @@ import org.joml.Math;
 
 
 public final class UVMapping {
+  /**
+   * Maximum absolute error of {@link #fastAtan2(double, double)} in radians.
+   */
+  public static final double FAST_ATAN2_MAX_ERROR = 1.2e-5;
+  /**
+   * Maximum absolute error of {@link #fastAsin(double)} in radians.
+   */
+  public static final double FAST_ASIN_MAX_ERROR = 7.0e-5;
+  /**
+   * Maximum error of the fast u coordinate, in units of the texture width.
+   */
+  public static final double FAST_U_MAX_ERROR = FAST_ATAN2_MAX_ERROR / (2 * Math.PI);
+  /**
+   * Maximum error of the fast v coordinate, in units of the texture height.
+   */
+  public static final double FAST_V_MAX_ERROR = FAST_ASIN_MAX_ERROR / Math.PI;
+
   private UVMapping() {
     // Private constructor to avoid instantiation
   }
@@ -18,9 +35,101 @@ public final class UVMapping {
    * @return a point on the texture image somewhere in the rectangle between (0, 0) and (1, 1)
    */
   public static Vector2d getTextureCoordinate(final Vector3d vector) {
-    final double u = 0.5 + (Math.atan2(vector.x, vector.z) / (2 * Math.PI));
-    final double v = 0.5 + (Math.asin(vector.y) / Math.PI);
-    return new Vector2d(u, v);
+    return new Vector2d(getU(vector.x, vector.z), getV(vector.y));
+  }
+
+  /**
+   * Horizontal texture coordinate of a unit vector, without allocation.
+   * @param x x component of the vector.
+   * @param z z component of the vector.
+   * @return u in the range between 0 and 1.
+   */
+  static double getU(final double x, final double z) {
+    return 0.5 + (Math.atan2(x, z) / (2 * Math.PI));
+  }
+
+  /**
+   * Vertical texture coordinate of a unit vector, without allocation.
+   * @param y y component of the vector.
+   * @return v in the range between 0 and 1.
+   */
+  static double getV(final double y) {
+    return 0.5 + (Math.asin(y) / Math.PI);
+  }
+
+  /**
+   * Fast-math variant of {@link #getTextureCoordinate(Vector3d)}.
+   * <p>
+   * The result is off by at most {@link #FAST_U_MAX_ERROR} texture widths horizontally
+   * (measured around the seam, so u values near 0 and near 1 are neighbours) and
+   * {@link #FAST_V_MAX_ERROR} texture heights vertically.
+   * @param vector the vector to which the texture point is mapped
+   * @return a point on the texture image somewhere in the rectangle between (0, 0) and (1, 1)
+   */
+  public static Vector2d getTextureCoordinateFast(final Vector3d vector) {
+    return new Vector2d(getUFast(vector.x, vector.z), getVFast(vector.y));
+  }
+
+  /**
+   * Check whether the fast-math texture coordinates stay within half a texel.
+   * @param width texture width in pixels.
+   * @param height texture height in pixels.
+   * @return true when {@link #getTextureCoordinateFast(Vector3d)} can stand in for the exact one.
+   */
+  public static boolean isFastMathAccurate(final int width, final int height) {
+    return width * FAST_U_MAX_ERROR < 0.5 && height * FAST_V_MAX_ERROR < 0.5;
+  }
+
+  static double getUFast(final double x, final double z) {
+    return 0.5 + (fastAtan2(x, z) / (2 * Math.PI));
+  }
+
+  static double getVFast(final double y) {
+    return 0.5 + (fastAsin(y) / Math.PI);
+  }
+
+  /**
+   * Polynomial approximation of {@link Math#atan2(double, double)}.
+   * <p>
+   * Abramowitz and Stegun 4.4.47 on the octant reduced argument, error within
+   * {@link #FAST_ATAN2_MAX_ERROR}. Returns 0 for (0, 0).
+   * @param y ordinate.
+   * @param x abscissa.
+   * @return angle in the range between -pi and pi.
+   */
+  static double fastAtan2(final double y, final double x) {
+    final double ax = Math.abs(x);
+    final double ay = Math.abs(y);
+    final double max = ax > ay ? ax : ay;
+    if (max == 0) {
+      return 0;
+    }
+    final double a = (ax > ay ? ay : ax) / max;
+    final double s = a * a;
+    double r = ((((0.0208351 * s - 0.0851330) * s + 0.1801410) * s - 0.3302995) * s
+        + 0.9998660) * a;
+    if (ay > ax) {
+      r = Math.PI / 2 - r;
+    }
+    if (x < 0) {
+      r = Math.PI - r;
+    }
+    return y < 0 ? -r : r;
+  }
+
+  /**
+   * Polynomial approximation of {@link Math#asin(double)}.
+   * <p>
+   * Abramowitz and Stegun 4.4.45, error within {@link #FAST_ASIN_MAX_ERROR}.
+   * Arguments are clamped to the range between -1 and 1.
+   * @param y sine value.
+   * @return angle in the range between -pi/2 and pi/2.
+   */
+  static double fastAsin(final double y) {
+    final double a = Math.min(Math.abs(y), 1.0);
+    final double r = Math.PI / 2
+        - Math.sqrt(1 - a) * (((-0.0187293 * a + 0.0742610) * a - 0.2121144) * a + 1.5707288);
+    return y < 0 ? -r : r;
   }
 
   /**
@@ -0,0 +1,84 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.stream.IntStream;
+
+
+/**
+ * Opaque texture in planar YCbCr 4:2:0, one luma byte per texel and one Cb and Cr byte
+ * per 2x2 texels.
+ * <p>
+ * Uses the full range BT.601 conversion of JFIF in 8-bit fixed point, so a pixel
+ * survives the round trip within a few levels of its chroma block average.
+ */
+final class YCbCrTexture extends Texture {
+
+  private final byte[] luma;
+  private final byte[] cb;
+  private final byte[] cr;
+  private final int chromaWidth;
+
+  private YCbCrTexture(final int width, final int height) {
+    super(width, height);
+    chromaWidth = (width + 1) / 2;
+    luma = new byte[width * height];
+    cb = new byte[chromaWidth * ((height + 1) / 2)];
+    cr = new byte[cb.length];
+  }
+
+  /**
+   * Convert a texture.
+   * @param source texture to convert.
+   * @return YCbCr copy of source.
+   */
+  static YCbCrTexture encode(final Texture source) {
+    final YCbCrTexture texture = new YCbCrTexture(source.width, source.height);
+    final int width = source.width;
+    final int height = source.height;
+    IntStream.range(0, (height + 1) / 2).parallel().forEach(cy -> {
+      for (int cx = 0; cx < texture.chromaWidth; cx++) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int n = 0;
+        for (int y = 2 * cy; y < Math.min(2 * cy + 2, height); y++) {
+          for (int x = 2 * cx; x < Math.min(2 * cx + 2, width); x++) {
+            final int p = source.getRGB(x, y);
+            final int pr = p >> 16 & 0xff;
+            final int pg = p >> 8 & 0xff;
+            final int pb = p & 0xff;
+            texture.luma[y * width + x] = (byte) ((77 * pr + 150 * pg + 29 * pb + 128) >> 8);
+            r += pr;
+            g += pg;
+            b += pb;
+            n++;
+          }
+        }
+        r = (r + n / 2) / n;
+        g = (g + n / 2) / n;
+        b = (b + n / 2) / n;
+        final int c = cy * texture.chromaWidth + cx;
+        texture.cb[c] = (byte) clamp(((-43 * r - 85 * g + 128 * b + 128) >> 8) + 128);
+        texture.cr[c] = (byte) clamp(((128 * r - 107 * g - 21 * b + 128) >> 8) + 128);
+      }
+    });
+    return texture;
+  }
+
+  @Override
+  int getRGB(final int x, final int y) {
+    final int l = luma[y * width + x] & 0xff;
+    final int c = (y >> 1) * chromaWidth + (x >> 1);
+    final int u = (cb[c] & 0xff) - 128;
+    final int v = (cr[c] & 0xff) - 128;
+    final int r = clamp(l + ((359 * v + 128) >> 8));
+    final int g = clamp(l - ((88 * u + 183 * v + 128) >> 8));
+    final int b = clamp(l + ((454 * u + 128) >> 8));
+    return 0xff000000 | r << 16 | g << 8 | b;
+  }
+
+  private static int clamp(final int value) {
+    return value < 0 ? 0 : value > 255 ? 255 : value;
+  }
+}
@@ -0,0 +1,77 @@
+// License: GPL. For details, see LICENSE file.
+package tokyo.northside.imageviewer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tokyo.northside.imageviewer.panorama.RenderScheduler;
+import tokyo.northside.imageviewer.panorama.Sampling;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link BatchRenderer}
+ */
+public class BatchRendererTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRenderViews() throws IOException {
+    BufferedImage pano = new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 256; x++) {
+      for (int y = 0; y < 128; y++) {
+        pano.setRGB(x, y, y < 64 ? 0x3060ff : 0x208020);
+      }
+    }
+    File input = folder.newFile("pano.png");
+    ImageIO.write(pano, "png", input);
+    File broken = folder.newFile("broken.jpg");
+    File out = folder.newFolder("out");
+
+    RenderScheduler scheduler = new RenderScheduler(2);
+    BatchRenderer batch = new BatchRenderer(Arrays.asList(
+        BatchRenderer.View.parse("0, 45, 90, 64, 48"),
+        BatchRenderer.View.parse("180,-45,60,32,32")), out, "png", Sampling.BILINEAR, scheduler);
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    batch.run(Arrays.asList(input, broken), 1, 2, new PrintStream(log, true));
+    scheduler.shutdown();
+
+    assertEquals(1, batch.getImageCount());
+    assertEquals(2, batch.getFrameCount());
+    assertEquals(1, batch.getFailureCount());
+    assertTrue(log.toString().contains("broken.jpg"));
+    BufferedImage up = ImageIO.read(new File(out, "pano_000.png"));
+    assertEquals(64, up.getWidth());
+    assertEquals(48, up.getHeight());
+    // Looking up shows the sky, looking down shows the ground.
+    assertEquals(0x3060ff, up.getRGB(32, 24) & 0xffffff);
+    BufferedImage down = ImageIO.read(new File(out, "pano_001.png"));
+    assertEquals(32, down.getWidth());
+    assertEquals(0x208020, down.getRGB(16, 16) & 0xffffff);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidView() {
+    BatchRenderer.View.parse("0,0,200,10,10");
+  }
+
+  @Test
+  public void testNoImages() {
+    BatchRenderer batch = new BatchRenderer(Collections.singletonList(BatchRenderer.View.parse("0,0,90,8,8")),
+        folder.getRoot(), "png", Sampling.NEAREST, RenderScheduler.getDefault());
+    batch.run(Collections.emptyList(), 1, 1, System.err);
+    assertEquals(0, batch.getFrameCount());
+  }
+}
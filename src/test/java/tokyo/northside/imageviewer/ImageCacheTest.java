@@ -0,0 +1,172 @@
+// License: GPL. For details, see LICENSE file.
+package tokyo.northside.imageviewer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tokyo.northside.imageviewer.panorama.TextureFormat;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ImageCache} and {@link ImagePrefetcher}
+ */
+public class ImageCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static CachedImage image(String name, int width) {
+    return new CachedImage(new File(name),
+        new BufferedImage(width, 10, BufferedImage.TYPE_INT_RGB), PanoramaMetadata.NONE, null);
+  }
+
+  @Test
+  public void testEviction() {
+    ImageCache cache = new ImageCache(1000);
+    CachedImage a = image("a", 10);
+    CachedImage b = image("b", 10);
+    CachedImage c = image("c", 10);
+    assertEquals(400, a.getByteCount());
+    assertTrue(cache.put(a));
+    assertTrue(cache.put(b));
+    // a is used more recently than b, so b goes first.
+    assertSame(a, cache.get(new File("a")));
+    assertTrue(cache.put(c));
+    assertEquals(2, cache.size());
+    assertEquals(800, cache.getByteCount());
+    assertNull(cache.get(new File("b")));
+    assertNotNull(cache.get(new File("a")));
+
+    // Replacing an entry does not count it twice.
+    assertTrue(cache.put(image("c", 10)));
+    assertEquals(800, cache.getByteCount());
+
+    assertFalse(cache.put(image("d", 30)));
+    assertEquals(800, cache.getByteCount());
+    assertTrue(cache.put(image("e", 25)));
+    assertEquals(1, cache.size());
+    assertEquals(1000, cache.getByteCount());
+  }
+
+  @Test
+  public void testPrefetch() throws IOException, InterruptedException {
+    File pano = folder.newFile("pano.jpg");
+    Files.write(pano.toPath(), ImageMetaDataUtilTest.jpeg(ImageMetaDataUtilTest.ATTRIBUTE_XMP));
+    File flat = folder.newFile("flat.jpg");
+    Files.write(flat.toPath(), ImageMetaDataUtilTest.jpeg(null));
+    File broken = folder.newFile("broken.jpg");
+
+    ImageCache cache = new ImageCache(1 << 20);
+    ImagePrefetcher prefetcher = new ImagePrefetcher(cache, new ImageLoader(1 << 20));
+    prefetcher.prefetch(Arrays.asList(pano, flat, broken));
+    prefetcher.waitIdle();
+    prefetcher.shutdown();
+
+    assertEquals(2, cache.size());
+    CachedImage cachedPano = cache.get(pano);
+    assertTrue(cachedPano.isPanorama());
+    assertEquals(64, cachedPano.getImage().getWidth());
+    assertNotNull(cachedPano.getMipMap());
+    assertNull(cache.get(flat).getMipMap());
+    assertTrue(cache.getByteCount() <= cache.getBudget());
+  }
+
+  @Test
+  public void testPrefetchCached() throws InterruptedException {
+    ImageCache cache = new ImageCache(1 << 20);
+    CachedImage a = image("missing.jpg", 10);
+    cache.put(a);
+    ImagePrefetcher prefetcher = new ImagePrefetcher(cache, new ImageLoader(1 << 20));
+    prefetcher.prefetch(Collections.singletonList(new File("missing.jpg")));
+    prefetcher.waitIdle();
+    prefetcher.shutdown();
+    assertSame(a, cache.get(new File("missing.jpg")));
+  }
+
+  @Test
+  public void testClaimRunningDecode() throws IOException, InterruptedException, ExecutionException {
+    File pano = folder.newFile("pano.jpg");
+    Files.write(pano.toPath(), ImageMetaDataUtilTest.jpeg(ImageMetaDataUtilTest.ATTRIBUTE_XMP));
+    File flat = folder.newFile("flat.jpg");
+    Files.write(flat.toPath(), ImageMetaDataUtilTest.jpeg(null));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    ImageLoader loader = new ImageLoader(1 << 20) {
+      @Override
+      LoadedImage open(File file, Dimension view) throws IOException {
+        started.countDown();
+        try {
+          proceed.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return super.open(file, view);
+      }
+    };
+    ImageCache cache = new ImageCache(2 << 20);
+    ImagePrefetcher prefetcher = new ImagePrefetcher(cache, loader);
+    prefetcher.prefetch(Arrays.asList(pano, flat));
+    started.await();
+
+    // The running decode is handed over, the queued one is cancelled.
+    Future<CachedImage> running = prefetcher.claim(pano);
+    assertNotNull(running);
+    assertNull(prefetcher.claim(flat));
+    // Browsing on does not cancel a claimed decode.
+    prefetcher.prefetch(Collections.emptyList());
+    proceed.countDown();
+    assertTrue(running.get().isPanorama());
+    prefetcher.waitIdle();
+    prefetcher.shutdown();
+    assertSame(running.get(), cache.get(pano));
+    assertFalse(cache.contains(flat));
+    assertNull(prefetcher.claim(pano));
+  }
+
+  @Test
+  public void testBudgetSizedPanoramaIsCached() throws IOException, InterruptedException {
+    // Decoded in full, 512x256 3-byte pixels and the int levels of the pyramid take
+    // 565248 bytes, more than the cache holds.
+    File pano = folder.newFile("large.jpg");
+    Files.write(pano.toPath(),
+        ImageMetaDataUtilTest.jpeg(ImageMetaDataUtilTest.ATTRIBUTE_XMP, 512, 256));
+    ImageCache cache = new ImageCache(540000);
+    ImagePrefetcher prefetcher = new ImagePrefetcher(cache, new ImageLoader(540000));
+    prefetcher.prefetch(Collections.singletonList(pano));
+    prefetcher.waitIdle();
+    prefetcher.shutdown();
+
+    CachedImage cached = cache.get(pano);
+    assertNotNull(cached);
+    assertEquals(256, cached.getImage().getWidth());
+    assertTrue(cache.getByteCount() <= cache.getBudget());
+  }
+
+  @Test
+  public void testDecodeBudget() {
+    ImageCache cache = new ImageCache(3 << 20);
+    // The decoded image and the packed int levels of its pyramid.
+    assertEquals(9 << 18, cache.getDecodeBudget(TextureFormat.SOURCE));
+    assertEquals(9 << 18, cache.getDecodeBudget(TextureFormat.PACKED_INT));
+    // Only the compact pyramid of a panorama is kept, images are kept decoded.
+    assertEquals(3 << 20, cache.getDecodeBudget(TextureFormat.YCBCR_420));
+    assertEquals(3 << 20, cache.getDecodeBudget(TextureFormat.BLOCK_COMPRESSED));
+  }
+}
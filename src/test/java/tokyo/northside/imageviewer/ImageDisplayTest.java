@@ -2,14 +2,20 @@
 package tokyo.northside.imageviewer;
 
 import org.junit.Test;
+import tokyo.northside.imageviewer.panorama.MipMap;
+import tokyo.northside.imageviewer.panorama.TextureFormat;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /**
  * Tests {@link ImageDisplay}
@@ -25,6 +31,158 @@ public class ImageDisplayTest {
     assertEquals(DUMMY_IMAGE, display.getImage());
   }
 
+  @Test
+  public void testRepaintDoesNotReproject() throws InterruptedException {
+    ImageDisplay display = new ImageDisplay();
+    display.setSize(80, 60);
+    display.setImage(new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB), true);
+    display.waitForRender();
+    long rendered = display.getRenderCount();
+    assertEquals(1, rendered);
+    Graphics g = new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB).getGraphics();
+    for (int i = 0; i < 3; i++) {
+      display.paintComponent(g);
+      display.waitForRender();
+    }
+    assertEquals(rendered, display.getRenderCount());
+
+    // Rotating the view makes the next paint reproject once.
+    final MouseEvent click = new MouseEvent(display, MouseEvent.MOUSE_CLICKED, System.currentTimeMillis(),
+        0, 10, 10, 1, false, MouseEvent.BUTTON3);
+    display.getMouseListeners()[0].mouseClicked(click);
+    display.paintComponent(g);
+    display.paintComponent(g);
+    display.waitForRender();
+    display.paintComponent(g);
+    display.waitForRender();
+    assertEquals(rendered + 1, display.getRenderCount());
+  }
+
+  @Test
+  public void testCompactPanorama() throws InterruptedException {
+    ImageDisplay display = new ImageDisplay();
+    display.setSize(80, 60);
+    display.setTextureFormat(TextureFormat.YCBCR_420);
+    display.setImage(new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB), true);
+    // The pyramid holds its own copy, the decoded image is not kept.
+    assertNull(display.getImage());
+    display.waitForRender();
+    assertEquals(1, display.getRenderCount());
+
+    MipMap mipMap = MipMap.build(new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB),
+        TextureFormat.BLOCK_COMPRESSED);
+    display.setImage(null, true, mipMap);
+    display.waitForRender();
+    assertEquals(2, display.getRenderCount());
+  }
+
+  @Test
+  public void testResize() throws InterruptedException {
+    ImageDisplay display = new ImageDisplay();
+    display.setSize(80, 60);
+    display.setImage(new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB), true);
+    display.waitForRender();
+    assertEquals(1, display.getRenderCount());
+
+    // The old frame is drawn scaled while the new viewport is prepared and rendered.
+    display.setSize(120, 90);
+    Graphics g = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB).getGraphics();
+    display.paintComponent(g);
+    display.waitForRender();
+    display.waitForRender();
+    assertEquals(2, display.getRenderCount());
+    display.paintComponent(g);
+    display.waitForRender();
+    assertEquals(2, display.getRenderCount());
+
+    // Back to the first size, with the cached viewport.
+    display.setSize(80, 60);
+    display.paintComponent(g);
+    display.waitForRender();
+    display.waitForRender();
+    assertEquals(3, display.getRenderCount());
+  }
+
+  @Test
+  public void testDragRendersPreviews() throws InterruptedException {
+    ImageDisplay display = new ImageDisplay();
+    display.setSize(80, 60);
+    display.setImage(new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB), true);
+    display.waitForRender();
+    assertEquals(1, display.getRenderCount());
+    Graphics g = new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB).getGraphics();
+
+    // The view turns with every drag event, rendered at half resolution.
+    long now = System.currentTimeMillis();
+    display.getMouseListeners()[0].mousePressed(
+        new MouseEvent(display, MouseEvent.MOUSE_PRESSED, now, 0, 40, 30, 1, false, MouseEvent.BUTTON3));
+    for (int x = 45; x <= 55; x += 5) {
+      display.getMouseMotionListeners()[0].mouseDragged(
+          new MouseEvent(display, MouseEvent.MOUSE_DRAGGED, now, 0, x, 30, 1, false, MouseEvent.BUTTON3));
+      display.paintComponent(g);
+      display.waitForRender();
+    }
+    assertEquals(3, display.getPreviewCount());
+    assertEquals(new Dimension(40, 30), display.getFrameSize());
+    display.getMouseListeners()[0].mouseReleased(
+        new MouseEvent(display, MouseEvent.MOUSE_RELEASED, now, 0, 55, 30, 1, false, MouseEvent.BUTTON3));
+    assertEquals(1, display.getRenderCount());
+
+    // Refined to full resolution once the idle delay has passed.
+    for (int i = 0; i < 50 && display.getRenderCount() == 1; i++) {
+      Thread.sleep(100);
+      display.paintComponent(g);
+      display.waitForRender();
+    }
+    assertEquals(2, display.getRenderCount());
+    assertEquals(new Dimension(80, 60), display.getFrameSize());
+  }
+
+  @Test
+  public void testPreviewScale() {
+    assertEquals(2, ImageDisplay.getPreviewScale(new Dimension(80, 60)));
+    assertEquals(2, ImageDisplay.getPreviewScale(new Dimension(1920, 1080)));
+    assertEquals(4, ImageDisplay.getPreviewScale(new Dimension(3840, 2160)));
+    assertEquals(8, ImageDisplay.getPreviewScale(new Dimension(7680, 4320)));
+  }
+
+  @Test
+  public void testEnlargedPictureDecodesRegion() throws InterruptedException {
+    ImageDisplay display = new ImageDisplay();
+    display.setSize(80, 40);
+    display.setImage(new BufferedImage(40, 20, BufferedImage.TYPE_INT_RGB), false);
+    List<Rectangle> regions = new ArrayList<>();
+    BufferedImage region = new BufferedImage(80, 40, BufferedImage.TYPE_INT_RGB);
+    Graphics rg = region.getGraphics();
+    rg.setColor(Color.RED);
+    rg.fillRect(0, 0, 80, 40);
+    display.setRegionDecoder(new ImageDisplay.RegionDecoder() {
+      @Override
+      public Dimension getSize() {
+        return new Dimension(400, 200);
+      }
+
+      @Override
+      public BufferedImage read(Rectangle r, int neededWidth, int neededHeight) {
+        regions.add(r);
+        assertEquals(new Dimension(80, 40), new Dimension(neededWidth, neededHeight));
+        return region;
+      }
+    });
+    BufferedImage frame = new BufferedImage(80, 40, BufferedImage.TYPE_INT_RGB);
+    Graphics g = frame.getGraphics();
+
+    // The picture is drawn enlarged until the visible region is decoded at full resolution.
+    display.paintComponent(g);
+    display.waitForDetail();
+    assertEquals(Collections.singletonList(new Rectangle(0, 0, 400, 200)), regions);
+    assertEquals(0, frame.getRGB(40, 20) & 0xffffff);
+    display.paintComponent(g);
+    display.waitForDetail();
+    assertEquals(0xff0000, frame.getRGB(40, 20) & 0xffffff);
+    assertEquals(1, regions.size());
+  }
+
   /**
    * This test does not check if the scroll events result in the correct changes in the {@link ImageDisplay},
    * it only checks if the tested method runs through.
@@ -0,0 +1,113 @@
+// License: GPL. For details, see LICENSE file.
+package tokyo.northside.imageviewer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ImageLoader}
+ */
+public class ImageLoaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File createImage() throws IOException {
+    BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 400; x++) {
+      for (int y = 0; y < 200; y++) {
+        image.setRGB(x, y, x < 200 ? 0xff0000 : 0x0000ff);
+      }
+    }
+    File file = folder.newFile("image.png");
+    ImageIO.write(image, "png", file);
+    return file;
+  }
+
+  @Test
+  public void testSubsampling() {
+    ImageLoader loader = new ImageLoader(400 * 200 * 4);
+    assertEquals(1, loader.subsampling(400, 200, 0, 0));
+    assertEquals(1, loader.subsampling(400, 200, 300, 150));
+    assertEquals(3, loader.subsampling(400, 200, 100, 60));
+    // The budget wins over the needed size.
+    assertEquals(2, new ImageLoader(200 * 100 * 4).subsampling(400, 200, 400, 200));
+    assertEquals(3, new ImageLoader(200 * 100 * 4 - 1).subsampling(400, 200, 0, 0));
+  }
+
+  @Test
+  public void testRead() throws IOException {
+    File file = createImage();
+    ImageLoader loader = new ImageLoader(1 << 20);
+    assertEquals(new Dimension(400, 200), loader.readSize(file));
+
+    BufferedImage preview = loader.read(file, 100, 50);
+    assertEquals(100, preview.getWidth());
+    assertEquals(50, preview.getHeight());
+    assertEquals(0xff0000, preview.getRGB(10, 10) & 0xffffff);
+    assertEquals(0x0000ff, preview.getRGB(90, 10) & 0xffffff);
+
+    BufferedImage budget = new ImageLoader(200 * 100 * 4).read(file, 0, 0);
+    assertEquals(200, budget.getWidth());
+    assertEquals(100, budget.getHeight());
+  }
+
+  @Test
+  public void testReadRegion() throws IOException {
+    File file = createImage();
+    ImageLoader loader = new ImageLoader(1 << 20);
+    BufferedImage region = loader.read(file, new Rectangle(150, 0, 400, 100), 0, 0);
+    assertEquals(250, region.getWidth());
+    assertEquals(100, region.getHeight());
+    assertEquals(0xff0000, region.getRGB(49, 0) & 0xffffff);
+    assertEquals(0x0000ff, region.getRGB(50, 0) & 0xffffff);
+
+    ImageDisplay.RegionDecoder regions = loader.regions(file);
+    assertEquals(new Dimension(400, 200), regions.getSize());
+    BufferedImage right = regions.read(new Rectangle(200, 0, 200, 200), 50, 50);
+    assertEquals(50, right.getWidth());
+    assertEquals(0x0000ff, right.getRGB(0, 0) & 0xffffff);
+  }
+
+  @Test
+  public void testUnsupported() throws IOException {
+    ImageLoader loader = new ImageLoader(1 << 20);
+    File file = folder.newFile("broken.jpg");
+    assertNull(loader.readSize(file));
+    assertNull(loader.read(file, 0, 0));
+  }
+
+  @Test
+  public void testOpen() throws IOException {
+    File pano = folder.newFile("pano.jpg");
+    Files.write(pano.toPath(), ImageMetaDataUtilTest.jpeg(ImageMetaDataUtilTest.ATTRIBUTE_XMP));
+    ImageLoader loader = new ImageLoader(1 << 20);
+    LoadedImage loaded = loader.open(pano, new Dimension(100, 50));
+    assertTrue(loaded.getMetadata().isEquirectangular());
+    assertEquals(90.0, loaded.getMetadata().getPoseHeadingDegrees(), 0);
+    // A panorama shown at 110 degrees in 100 pixels needs more than its 64 pixels.
+    assertEquals(64, loaded.getImage().getWidth());
+    assertNull(loaded.refine());
+
+    File flat = folder.newFile("flat.jpg");
+    Files.write(flat.toPath(), ImageMetaDataUtilTest.jpeg(null));
+    loaded = loader.open(flat, new Dimension(16, 8));
+    assertFalse(loaded.getMetadata().isEquirectangular());
+    assertEquals(16, loaded.getImage().getWidth());
+    assertEquals(64, loaded.refine().getWidth());
+  }
+}
@@ -0,0 +1,138 @@
+// License: GPL. For details, see LICENSE file.
+package tokyo.northside.imageviewer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ImageMetaDataUtil}
+ */
+public class ImageMetaDataUtilTest {
+
+  static final String ATTRIBUTE_XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+      + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+      + " GPano:ProjectionType=\"equirectangular\" GPano:PoseHeadingDegrees=\"90.0\"/>"
+      + "</rdf:RDF></x:xmpmeta>";
+
+  private static final String ELEMENT_XMP = "<?xpacket begin=\"\" id=\"W5M0MpCehiHzreSzNTczkc9d\"?>"
+      + "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+      + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\">"
+      + "<GPano:ProjectionType> equirectangular </GPano:ProjectionType>"
+      + "<GPano:FullPanoWidthPixels>64</GPano:FullPanoWidthPixels>"
+      + "</rdf:Description></rdf:RDF></x:xmpmeta><?xpacket end=\"w\"?>";
+
+  private static final String FLAT_XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+      + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+      + " GPano:ProjectionType=\"cylindrical\"/></rdf:RDF></x:xmpmeta>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Encode a small JPEG with an XMP APP1 segment after a leading APP0 segment.
+   */
+  static byte[] jpeg(String xmp) throws IOException {
+    return jpeg(xmp, 64, 32);
+  }
+
+  static byte[] jpeg(String xmp, int width, int height) throws IOException {
+    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR), "jpg", plain);
+    byte[] bytes = plain.toByteArray();
+    if (xmp == null) {
+      return bytes;
+    }
+    byte[] header = "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.ISO_8859_1);
+    byte[] packet = xmp.getBytes(StandardCharsets.UTF_8);
+    int length = 2 + header.length + packet.length;
+    int app0 = 4 + ((bytes[4] & 0xff) << 8 | bytes[5] & 0xff);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(bytes, 0, app0);
+    out.write(new byte[] {(byte) 0xff, (byte) 0xe1, (byte) (length >> 8), (byte) length});
+    out.write(header);
+    out.write(packet);
+    out.write(bytes, app0, bytes.length - app0);
+    return out.toByteArray();
+  }
+
+  private File write(String name, byte[] content) throws IOException {
+    File file = folder.newFile(name);
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  @Test
+  public void testIsPanorama() throws IOException {
+    assertTrue(ImageMetaDataUtil.isPanorama(write("attribute.jpg", jpeg(ATTRIBUTE_XMP))));
+    assertTrue(ImageMetaDataUtil.isPanorama(write("element.jpg", jpeg(ELEMENT_XMP))));
+    assertFalse(ImageMetaDataUtil.isPanorama(write("flat.jpg", jpeg(FLAT_XMP))));
+    assertFalse(ImageMetaDataUtil.isPanorama(write("plain.jpg", jpeg(null))));
+    assertFalse(ImageMetaDataUtil.isPanorama(write("empty.jpg", new byte[0])));
+    assertFalse(ImageMetaDataUtil.isPanorama(new File(folder.getRoot(), "missing.jpg")));
+  }
+
+  @Test
+  public void testReadPanoramaProperties() throws IOException {
+    Map<String, String> properties = ImageMetaDataUtil.readPanoramaProperties(
+        new ByteArrayInputStream(jpeg(ELEMENT_XMP)));
+    assertEquals("equirectangular", properties.get("ProjectionType"));
+    assertEquals("64", properties.get("FullPanoWidthPixels"));
+    properties = ImageMetaDataUtil.readPanoramaProperties(new ByteArrayInputStream(jpeg(ATTRIBUTE_XMP)));
+    assertEquals("90.0", properties.get("PoseHeadingDegrees"));
+    assertEquals(2, properties.size());
+  }
+
+  @Test
+  public void testStructuredElement() throws IOException {
+    String xmp = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+        + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+        + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\">"
+        + "<GPano:ProjectionType>equirectangular</GPano:ProjectionType>"
+        + "<GPano:SourcePhotosCount><rdf:Seq><rdf:li>1</rdf:li></rdf:Seq></GPano:SourcePhotosCount>"
+        + "<GPano:FullPanoWidthPixels>64</GPano:FullPanoWidthPixels>"
+        + "</rdf:Description></rdf:RDF></x:xmpmeta>";
+    // The structured value is skipped, the properties around it are kept.
+    Map<String, String> properties = ImageMetaDataUtil.readPanoramaProperties(
+        new ByteArrayInputStream(jpeg(xmp)));
+    assertEquals("equirectangular", properties.get("ProjectionType"));
+    assertEquals("64", properties.get("FullPanoWidthPixels"));
+    assertEquals(2, properties.size());
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    byte[] jpeg = jpeg(ATTRIBUTE_XMP);
+    byte[] truncated = new byte[30];
+    System.arraycopy(jpeg, 0, truncated, 0, truncated.length);
+    assertTrue(ImageMetaDataUtil.readPanoramaProperties(new ByteArrayInputStream(truncated)).isEmpty());
+  }
+
+  @Test
+  public void testReadPanoramaMetadata() throws IOException {
+    PanoramaMetadata metadata = ImageMetaDataUtil.readPanoramaMetadata(
+        new ByteArrayInputStream(jpeg(ELEMENT_XMP)));
+    assertTrue(metadata.isEquirectangular());
+    assertEquals(64, metadata.getFullPanoWidthPixels());
+    assertEquals(0, metadata.getCroppedAreaLeftPixels());
+    assertEquals(PanoramaMetadata.NONE,
+        ImageMetaDataUtil.readPanoramaMetadata(new ByteArrayInputStream(jpeg(null))));
+  }
+}
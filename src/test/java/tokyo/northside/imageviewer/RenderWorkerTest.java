@@ -0,0 +1,56 @@
+// License: GPL. For details, see LICENSE file.
+package tokyo.northside.imageviewer;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link RenderWorker}
+ */
+public class RenderWorkerTest {
+
+  @Test
+  public void testStaleJobsAreDropped() throws InterruptedException {
+    RenderWorker worker = new RenderWorker("test-render");
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> done = new CopyOnWriteArrayList<>();
+    worker.submit(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      done.add(0);
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 3; i++) {
+      final int frame = i;
+      worker.submit(() -> done.add(frame));
+    }
+    release.countDown();
+    worker.flush();
+    assertEquals(2, done.size());
+    assertEquals(Integer.valueOf(3), done.get(1));
+    worker.shutdown();
+  }
+
+  @Test
+  public void testJobsAfterShutdownAreIgnored() throws InterruptedException {
+    RenderWorker worker = new RenderWorker("test-render");
+    worker.shutdown();
+    List<Integer> done = new CopyOnWriteArrayList<>();
+    worker.submit(() -> done.add(1));
+    assertFalse(worker.hasPending());
+    assertTrue(done.isEmpty());
+  }
+}
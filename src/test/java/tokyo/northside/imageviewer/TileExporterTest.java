@@ -0,0 +1,83 @@
+// License: GPL. For details, see LICENSE file.
+package tokyo.northside.imageviewer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tokyo.northside.imageviewer.panorama.RenderScheduler;
+import tokyo.northside.imageviewer.panorama.Sampling;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link TileExporter}
+ */
+public class TileExporterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testExportTiles() throws IOException {
+    BufferedImage pano = new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 256; x++) {
+      for (int y = 0; y < 128; y++) {
+        pano.setRGB(x, y, y < 64 ? 0x3060ff : 0x208020);
+      }
+    }
+    File input = folder.newFile("pano.png");
+    ImageIO.write(pano, "png", input);
+    File broken = folder.newFile("broken.jpg");
+    File out = folder.newFolder("out");
+
+    RenderScheduler scheduler = new RenderScheduler(2);
+    TileExporter exporter = new TileExporter(32, 0, 64, out, "png", Sampling.BILINEAR, scheduler);
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    exporter.run(Arrays.asList(input, broken), 2, 3, new PrintStream(log, true));
+    scheduler.shutdown();
+
+    assertEquals(1, exporter.getImageCount());
+    assertEquals(1, exporter.getFailureCount());
+    assertTrue(log.toString().contains("broken.jpg"));
+    // One tile per face at level 0, four at level 1.
+    assertEquals(6 + 6 * 4, exporter.getTileCount());
+    assertEquals(30L * 32 * 32, exporter.getStages()[3].getPixels());
+
+    File root = new File(out, "pano");
+    BufferedImage up = ImageIO.read(new File(root, "0/u/0_0.png"));
+    assertEquals(32, up.getWidth());
+    assertEquals(32, up.getHeight());
+    assertEquals(0x3060ff, up.getRGB(16, 16) & 0xffffff);
+    assertEquals(0x208020, ImageIO.read(new File(root, "1/d/1_0.png")).getRGB(8, 8) & 0xffffff);
+    // Side faces show the horizon across their middle.
+    for (String face : new String[] {"f", "r", "b", "l"}) {
+      assertEquals(0x3060ff, ImageIO.read(new File(root, "1/" + face + "/0_1.png")).getRGB(16, 8)
+          & 0xffffff);
+      assertEquals(0x208020, ImageIO.read(new File(root, "1/" + face + "/1_0.png")).getRGB(16, 24)
+          & 0xffffff);
+    }
+  }
+
+  @Test
+  public void testFaceSizes() {
+    assertArrayEquals(new int[] {500, 1000}, TileExporter.getFaceSizes(1000, 512, 0));
+    assertArrayEquals(new int[] {250, 500, 1000}, TileExporter.getFaceSizes(1000, 256, 0));
+    assertArrayEquals(new int[] {7, 13, 25, 50, 100}, TileExporter.getFaceSizes(100, 256, 5));
+    assertArrayEquals(new int[] {256}, TileExporter.getFaceSizes(256, 256, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTileSize() {
+    new TileExporter(0, 0, 0, folder.getRoot(), "png", Sampling.NEAREST, RenderScheduler.getDefault());
+  }
+}
@@ -0,0 +1,144 @@
+// License: GPL. For details, see LICENSE file.
+package tokyo.northside.imageviewer.catalog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Catalog}
+ */
+public class CatalogTest {
+
+  private static final String PANORAMA_XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+      + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+      + " GPano:ProjectionType=\"equirectangular\" GPano:PosePitchDegrees=\"-2.5\"/>"
+      + "</rdf:RDF></x:xmpmeta>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static void writeJpeg(File file, int width, int height, String xmp) throws IOException {
+    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR), "jpg", plain);
+    byte[] bytes = plain.toByteArray();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(bytes, 0, 2);
+    if (xmp != null) {
+      byte[] header = "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.ISO_8859_1);
+      byte[] packet = xmp.getBytes(StandardCharsets.UTF_8);
+      int length = 2 + header.length + packet.length;
+      out.write(new byte[] {(byte) 0xff, (byte) 0xe1, (byte) (length >> 8), (byte) length});
+      out.write(header);
+      out.write(packet);
+    }
+    out.write(bytes, 2, bytes.length - 2);
+    Files.write(file.toPath(), out.toByteArray());
+  }
+
+  @Test
+  public void testScan() throws IOException {
+    File root = folder.newFolder("images");
+    File sub = new File(root, "sub");
+    assertTrue(sub.mkdir());
+    writeJpeg(new File(root, "pano.jpg"), 64, 32, PANORAMA_XMP);
+    writeJpeg(new File(sub, "flat.JPEG"), 40, 30, null);
+    Files.write(new File(root, "broken.jpg").toPath(), new byte[] {1, 2, 3});
+    Files.write(new File(root, "notes.txt").toPath(), new byte[] {1, 2, 3});
+    Path index = folder.getRoot().toPath().resolve("catalog.idx");
+
+    Catalog catalog = new Catalog(index, 2);
+    List<CatalogEntry> entries = catalog.scan(root.toPath());
+    assertEquals(3, entries.size());
+    assertEquals(3, catalog.getExaminedCount());
+    CatalogEntry broken = entries.get(0);
+    assertTrue(broken.getPath().endsWith("broken.jpg"));
+    assertEquals(0, broken.getWidth());
+    assertFalse(broken.isPanorama());
+    CatalogEntry pano = entries.get(1);
+    assertTrue(pano.isPanorama());
+    assertEquals(64, pano.getWidth());
+    assertEquals(32, pano.getHeight());
+    assertEquals(-2.5, pano.getMetadata().getPosePitchDegrees(), 0);
+    CatalogEntry flat = entries.get(2);
+    assertFalse(flat.isPanorama());
+    assertEquals(40, flat.getWidth());
+    catalog.save();
+
+    // A new catalog reads the index and only examines what changed.
+    File changed = new File(sub, "flat.JPEG");
+    writeJpeg(changed, 48, 30, null);
+    assertTrue(changed.setLastModified(changed.lastModified() + 2000));
+    assertTrue(new File(root, "broken.jpg").delete());
+    catalog = new Catalog(index);
+    entries = catalog.scan(root.toPath());
+    assertEquals(1, catalog.getExaminedCount());
+    assertEquals(2, entries.size());
+    assertTrue(entries.get(0).isPanorama());
+    assertEquals(-2.5, entries.get(0).getMetadata().getPosePitchDegrees(), 0);
+    assertEquals(48, entries.get(1).getWidth());
+    assertEquals(2, catalog.getEntries().size());
+  }
+
+  @Test
+  public void testCorruptIndex() throws IOException {
+    Path index = folder.newFile("catalog.idx").toPath();
+    Files.write(index, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    File root = folder.newFolder("images");
+    writeJpeg(new File(root, "pano.jpg"), 64, 32, PANORAMA_XMP);
+    Catalog catalog = new Catalog(index);
+    assertEquals(1, catalog.scan(root.toPath()).size());
+    catalog.save();
+    assertEquals(1, new Catalog(index).scan(root.toPath()).size());
+  }
+
+  @Test
+  public void testMalformedFile() throws IOException {
+    File root = folder.newFolder("images");
+    writeJpeg(new File(root, "pano.jpg"), 64, 32, PANORAMA_XMP);
+    // A PNG named .jpg whose iTXt chunk is too short makes the metadata parser throw.
+    Files.write(new File(root, "garbage.jpg").toPath(), new byte[] {(byte) 0x89, 'P', 'N', 'G',
+        13, 10, 26, 10, 0, 0, 0, 2, 'i', 'T', 'X', 't', 0, 0, 0, 0, 0, 0});
+    Catalog catalog = new Catalog(folder.getRoot().toPath().resolve("catalog.idx"));
+    List<CatalogEntry> entries = catalog.scan(root.toPath());
+    assertEquals(2, entries.size());
+    CatalogEntry garbage = entries.get(0);
+    assertTrue(garbage.getPath().endsWith("garbage.jpg"));
+    assertEquals(0, garbage.getWidth());
+    assertEquals(0, garbage.getHeight());
+    assertFalse(garbage.isPanorama());
+    assertTrue(entries.get(1).isPanorama());
+    assertEquals(64, entries.get(1).getWidth());
+  }
+
+  @Test
+  public void testReadHead() throws IOException {
+    File file = folder.newFile("pano.jpg");
+    writeJpeg(file, 256, 128, PANORAMA_XMP);
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    byte[] head = Catalog.readHead(new ByteArrayInputStream(bytes));
+    // The segments up to the start of scan, without the image data.
+    assertTrue(head.length < bytes.length);
+    assertArrayEquals(Arrays.copyOf(bytes, head.length), head);
+    assertTrue(new String(head, StandardCharsets.ISO_8859_1).contains("\u00ff\u00da"));
+    assertArrayEquals(head, Catalog.readHead(new ByteArrayInputStream(head)));
+  }
+}
@@ -2,10 +2,14 @@
 // SPDX-License-Identifier: GPL-2.0-or-later
 package tokyo.northside.imageviewer.panorama;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
 
 import org.joml.Vector2d;
 import org.joml.Vector3d;
@@ -50,5 +54,114 @@ public class CameraPlaneTest {
     assertEquals(0.44542099, map.x, 1e-8);
     assertEquals(0.39674936, map.y, 1e-8);
   }
-}
 
+  @Test
+  public void testRotationMatrix() {
+    cameraPlane = new CameraPlane(800, 600, CAMERA_PLANE_DISTANCE);
+    final double theta = 0.3;
+    final double phi = -0.2;
+    cameraPlane.setRotation(theta, phi);
+    for (Point p : new Point[] {new Point(0, 0), new Point(300, 200), new Point(799, 599), new Point(900, -5)}) {
+      // Two-step trig rotation of the normalized plane vector.
+      Vector3d vec = new Vector3d(p.x - 400, p.y - 300, CAMERA_PLANE_DISTANCE).normalize();
+      double z1 = vec.z * Math.cos(phi) - vec.y * Math.sin(phi);
+      double y1 = vec.z * Math.sin(phi) + vec.y * Math.cos(phi);
+      double x1 = z1 * Math.sin(theta) + vec.x * Math.cos(theta);
+      z1 = z1 * Math.cos(theta) - vec.x * Math.sin(theta);
+      Vector3d out = cameraPlane.getVector3d(p);
+      assertEquals(x1, out.x, 1e-12);
+      assertEquals(y1, out.y, 1e-12);
+      assertEquals(z1, out.z, 1e-12);
+    }
+  }
+
+  @Test
+  public void testMappingRasterTypes() {
+    final int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB_PRE};
+    cameraPlane = new CameraPlane(160, 120, (160 / 2) / Math.tan(FOV / 2));
+    cameraPlane.setRotation(1.3, -0.4);
+    cameraPlane.setFastMath(false);
+    for (int sourceType : types) {
+      BufferedImage source = randomImage(301, 151, sourceType);
+      for (int targetType : types) {
+        BufferedImage expected = new BufferedImage(160, 120, targetType);
+        BufferedImage actual = new BufferedImage(160, 120, targetType);
+        referenceMapping(source, expected);
+        cameraPlane.mapping(source, actual);
+        assertArrayEquals(pixels(expected), pixels(actual));
+      }
+      BufferedImage subImage = randomImage(400, 200, sourceType).getSubimage(50, 20, 301, 151);
+      BufferedImage expected = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+      BufferedImage actual = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+      referenceMapping(subImage, expected);
+      cameraPlane.mapping(subImage, actual);
+      assertArrayEquals(pixels(expected), pixels(actual));
+    }
+  }
+
+  @Test
+  public void testNearestMatchesRemapTable() {
+    // Rendering directly agrees with the coordinates of a compiled view.
+    cameraPlane = new CameraPlane(160, 120, (160 / 2) / Math.tan(FOV / 2));
+    cameraPlane.setRotation(1.3, -0.4);
+    cameraPlane.setKernel(ProjectionKernel.getScalar());
+    BufferedImage source = randomImage(300, 150, BufferedImage.TYPE_INT_RGB);
+    for (boolean fast : new boolean[] {false, true}) {
+      cameraPlane.setFastMath(fast);
+      BufferedImage expected = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+      BufferedImage actual = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+      cameraPlane.mapping(MipMap.build(source), expected, Sampling.NEAREST, new RemapCache(1 << 20),
+          () -> false);
+      cameraPlane.mapping(source, actual);
+      assertArrayEquals(pixels(expected), pixels(actual));
+    }
+  }
+
+  private void referenceMapping(BufferedImage sourceImage, BufferedImage targetImage) {
+    for (int y = 0; y < targetImage.getHeight(); y++) {
+      for (int x = 0; x < targetImage.getWidth(); x++) {
+        Vector2d p = UVMapping.getTextureCoordinate(cameraPlane.getVector3d(new Point(x, y)));
+        targetImage.setRGB(x, y, sourceImage.getRGB(
+            (int) (p.x * sourceImage.getWidth()) % sourceImage.getWidth(),
+            Math.min((int) (p.y * sourceImage.getHeight()), sourceImage.getHeight() - 1)));
+      }
+    }
+  }
+
+  private static BufferedImage randomImage(int width, int height, int type) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    Random random = new Random(width * 31 + type);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, random.nextInt());
+      }
+    }
+    return image;
+  }
+
+  private static int[] pixels(BufferedImage image) {
+    return image.getRaster().getPixels(0, 0, image.getWidth(), image.getHeight(), (int[]) null);
+  }
+
+  @Test
+  public void testSetFov() {
+    cameraPlane = new CameraPlane(800, 600, CAMERA_PLANE_DISTANCE);
+    assertEquals(FOV, cameraPlane.getFov(), 1e-12);
+    long version = cameraPlane.getVersion();
+    cameraPlane.setFov(Math.toRadians(30));
+    assertTrue(cameraPlane.getVersion() != version);
+    assertEquals(Math.toRadians(30), cameraPlane.getFov(), 1e-12);
+    // The ray through the right edge is half the field of view off the centre.
+    Vector3d edge = cameraPlane.getVector3d(new Point(800, 300));
+    assertEquals(Math.toRadians(15), Math.atan2(edge.x, edge.z), 1e-9);
+
+    // Zooming around an anchor keeps the direction under it.
+    cameraPlane.setFov(FOV);
+    Point anchor = new Point(400, 150);
+    Vector3d before = cameraPlane.getVector3d(anchor);
+    cameraPlane.setFov(Math.toRadians(60), anchor);
+    Vector3d after = cameraPlane.getVector3d(anchor);
+    assertEquals(0, before.angle(after), 1e-9);
+  }
+}
@@ -0,0 +1,104 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class CubeMapTest {
+
+  /**
+   * Colours that vary smoothly with the direction, continuous across the seam and the poles.
+   */
+  private static BufferedImage smooth(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      double latitude = Math.PI * (0.5 - (y + 0.5) / height);
+      for (int x = 0; x < width; x++) {
+        double longitude = 2 * Math.PI * (x + 0.5) / width;
+        int r = (int) (127.5 + 127.5 * Math.cos(latitude) * Math.cos(longitude));
+        int g = (int) (127.5 + 127.5 * Math.sin(latitude));
+        int b = (int) (127.5 + 127.5 * Math.cos(latitude) * Math.sin(longitude));
+        image.setRGB(x, y, r << 16 | g << 8 | b);
+      }
+    }
+    return image;
+  }
+
+  private static int channelError(int p, int q) {
+    int max = 0;
+    for (int shift = 0; shift < 24; shift += 8) {
+      max = Math.max(max, Math.abs((p >> shift & 0xff) - (q >> shift & 0xff)));
+    }
+    return max;
+  }
+
+  @Test
+  public void testAllDirections() {
+    MipMap source = MipMap.build(smooth(1024, 512));
+    CubeMap cube = CubeMap.convert(source);
+    Texture texture = source.getLevel(0);
+    Random random = new Random(5);
+    double[] us = new double[1];
+    double[] vs = new double[1];
+    int[] expected = new int[1];
+    int worst = 0;
+    for (int i = 0; i < 20000; i++) {
+      double x = random.nextGaussian();
+      double y = random.nextGaussian();
+      double z = random.nextGaussian();
+      if (i % 4 == 0) {
+        // Along the edges and at the corners of the cube.
+        x = Math.signum(x);
+        y = i % 8 == 0 ? Math.signum(y) : y;
+        z = Math.signum(z);
+      }
+      double length = Math.sqrt(x * x + y * y + z * z);
+      us[0] = UVMapping.getU(x / length, z / length);
+      vs[0] = UVMapping.getV(y / length);
+      Sampling.BILINEAR.sample(texture, us, vs, expected, 1);
+      worst = Math.max(worst, channelError(expected[0], cube.sample(x, y, z, true)));
+      worst = Math.max(worst, channelError(expected[0], cube.sample(x, y, z, false)));
+    }
+    assertTrue("worst error " + worst, worst <= 4);
+  }
+
+  @Test
+  public void testRenderCloseToEquirectangular() {
+    MipMap source = MipMap.build(smooth(2048, 1024));
+    CubeMap cube = CubeMap.convert(source);
+    double[][] views = {{0, 0}, {Math.PI, 0.2}, {2.5, 1.4}, {-1, -1.5}};
+    for (double[] view : views) {
+      CameraPlane plane = new CameraPlane(320, 240, 150);
+      plane.setRotation(view[0], view[1]);
+      BufferedImage equirect = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+      BufferedImage cubic = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+      plane.mapping(source, equirect, Sampling.BILINEAR);
+      assertTrue(plane.mapping(cube, cubic, Sampling.BILINEAR, () -> false));
+      for (int y = 0; y < 240; y++) {
+        for (int x = 0; x < 320; x++) {
+          assertTrue(channelError(equirect.getRGB(x, y), cubic.getRGB(x, y)) <= 3);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFormatAndSize() {
+    MipMap source = MipMap.build(smooth(1024, 512));
+    assertEquals(326, CubeMap.getDefaultFaceSize(source));
+    CubeMap packed = CubeMap.convert(source, 64, TextureFormat.SOURCE);
+    assertEquals(TextureFormat.PACKED_INT, packed.getFormat());
+    assertEquals(64, packed.getFaceSize());
+    assertEquals(6 * 4L * 66 * 66, packed.getByteCount());
+    CubeMap blocks = CubeMap.convert(source, 64, TextureFormat.BLOCK_COMPRESSED);
+    assertEquals(6 * TextureFormat.BLOCK_COMPRESSED.getByteCount(66, 66), blocks.getByteCount());
+    assertTrue(channelError(packed.sample(0, 0, 1, true), blocks.sample(0, 0, 1, true)) <= 24);
+  }
+}
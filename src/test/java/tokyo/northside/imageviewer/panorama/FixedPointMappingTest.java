@@ -0,0 +1,109 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class FixedPointMappingTest {
+
+  private static final int WIDTH = 4096;
+  private static final int HEIGHT = 2048;
+
+  private static BufferedImage noise(int width, int height, long seed) {
+    Random random = new Random(seed);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, random.nextInt());
+      }
+    }
+    return image;
+  }
+
+  @Test
+  public void testCoordinatesCloseToExact() {
+    FixedPointMapping mapping = new FixedPointMapping(Sampling.BILINEAR, WIDTH, HEIGHT, false);
+    Random random = new Random(7);
+    int[] xs = new int[200];
+    int[] ys = new int[200];
+    double worst = 0;
+    for (int line = 0; line < 2000; line++) {
+      double[] ray = new double[6];
+      for (int k = 0; k < ray.length; k++) {
+        ray[k] = random.nextGaussian() * (k < 3 ? 100 : 1);
+      }
+      if (line % 4 == 0) {
+        // Scanlines passing right by a pole, where the longitude turns fastest.
+        ray[0] = -100 * ray[3];
+        ray[2] = -100 * ray[5];
+        ray[1] = 100;
+        ray[4] = 0.01;
+      }
+      mapping.coordinates(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], 0, xs.length, xs, ys);
+      for (int x = 0; x < xs.length; x++) {
+        double vx = ray[0] + x * ray[3];
+        double vy = ray[1] + x * ray[4];
+        double vz = ray[2] + x * ray[5];
+        double length = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        double u = UVMapping.getU(vx / length, vz / length) * WIDTH - 0.5;
+        double v = UVMapping.getV(vy / length) * HEIGHT - 0.5;
+        double du = Math.abs(xs[x] / 65536.0 - u) % WIDTH;
+        worst = Math.max(worst, Math.min(du, WIDTH - du));
+        worst = Math.max(worst, Math.abs(ys[x] / 65536.0 - v));
+      }
+    }
+    assertTrue("worst error " + worst, worst <= 0.125);
+  }
+
+  @Test
+  public void testUnsupported() {
+    assertFalse(FixedPointMapping.supports(Sampling.BICUBIC, 1024, 512));
+    assertFalse(FixedPointMapping.supports(Sampling.NEAREST, 32768, 16384));
+    assertTrue(FixedPointMapping.supports(Sampling.BILINEAR, 16384, 8192));
+  }
+
+  @Test
+  public void testQualityAgainstExactRenderer() {
+    MipMap source = MipMap.build(noise(1024, 512, 3));
+    double[][] views = {{0, 0}, {Math.PI, 0.2}, {2.5, 1.4}, {-1, -1.5}};
+    for (double[] view : views) {
+      CameraPlane exact = new CameraPlane(320, 240, 150);
+      exact.setFastMath(false);
+      exact.setRotation(view[0], view[1]);
+      CameraPlane fixed = new CameraPlane(320, 240, 150);
+      fixed.setFixedPoint(true);
+      fixed.setRotation(view[0], view[1]);
+      for (Sampling sampling : new Sampling[] {Sampling.NEAREST, Sampling.BILINEAR}) {
+        BufferedImage expected = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        BufferedImage actual = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        exact.mapping(source, expected, sampling, () -> false);
+        fixed.mapping(source, actual, sampling, () -> false);
+        int same = 0;
+        long error = 0;
+        for (int y = 0; y < 240; y++) {
+          for (int x = 0; x < 320; x++) {
+            int p = expected.getRGB(x, y);
+            int q = actual.getRGB(x, y);
+            same += p == q ? 1 : 0;
+            for (int shift = 0; shift < 24; shift += 8) {
+              error += Math.abs((p >> shift & 0xff) - (q >> shift & 0xff));
+            }
+          }
+        }
+        // White noise is the worst case: any texel off changes the pixel completely.
+        String message = sampling + " at " + view[0] + ", " + view[1];
+        if (sampling == Sampling.NEAREST) {
+          assertTrue(message, same > 0.95 * 320 * 240);
+        }
+        assertTrue(message, error < 4 * 3 * 320 * 240);
+      }
+    }
+  }
+}
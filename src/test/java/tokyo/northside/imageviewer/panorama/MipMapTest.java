@@ -0,0 +1,64 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+
+public class MipMapTest {
+
+  @Test
+  public void testLevels() {
+    BufferedImage image = new BufferedImage(1024, 512, BufferedImage.TYPE_3BYTE_BGR);
+    for (int y = 0; y < 512; y++) {
+      for (int x = 0; x < 1024; x++) {
+        image.setRGB(x, y, (x + y) % 2 == 0 ? 0xffffffff : 0xff000000);
+      }
+    }
+    MipMap mipMap = MipMap.build(image);
+    assertEquals(5, mipMap.getLevelCount());
+    assertEquals(5, mipMap.getAvailableLevels());
+    for (int level = 1; level < 5; level++) {
+      Texture texture = mipMap.getLevel(level);
+      assertEquals(1024 >> level, texture.width);
+      assertEquals(512 >> level, texture.height);
+      // The checkerboard averages out to grey.
+      assertEquals(0xff808080, texture.getRGB(3, 5));
+    }
+  }
+
+  @Test
+  public void testOddSize() {
+    MipMap mipMap = MipMap.build(new BufferedImage(257, 129, BufferedImage.TYPE_INT_RGB));
+    assertEquals(3, mipMap.getLevelCount());
+    assertEquals(64, mipMap.getLevel(2).width);
+    assertEquals(32, mipMap.getLevel(2).height);
+  }
+
+  @Test
+  public void testSelectLevel() {
+    MipMap mipMap = MipMap.buildAsync(new BufferedImage(4096, 2048, BufferedImage.TYPE_INT_RGB),
+        Runnable::run, null);
+    assertEquals(7, mipMap.getLevelCount());
+    assertEquals(0, mipMap.selectLevel(0.5));
+    assertEquals(0, mipMap.selectLevel(1.9));
+    assertEquals(1, mipMap.selectLevel(2));
+    assertEquals(3, mipMap.selectLevel(9));
+    assertEquals(6, mipMap.selectLevel(1000));
+  }
+
+  @Test
+  public void testCameraPlaneLevel() {
+    MipMap mipMap = MipMap.build(new BufferedImage(8192, 4096, BufferedImage.TYPE_INT_RGB));
+    // 110 degrees over 800 pixels: about 5.7 source texels per output pixel.
+    CameraPlane wide = new CameraPlane(800, 600, 400 / Math.tan(Math.toRadians(55)));
+    assertEquals(2, wide.selectLevel(mipMap));
+    // 20 degrees over 800 pixels: finer than the source.
+    CameraPlane narrow = new CameraPlane(800, 600, 400 / Math.tan(Math.toRadians(10)));
+    assertEquals(0, narrow.selectLevel(mipMap));
+  }
+}
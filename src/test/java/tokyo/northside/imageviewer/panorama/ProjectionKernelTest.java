@@ -0,0 +1,60 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ProjectionKernelTest {
+
+  @Test
+  public void testDefaultKernelMatchesScalar() {
+    // With the vector module this compares both kernels, without it the fallback itself.
+    final ProjectionKernel kernel = ProjectionKernel.getDefault();
+    assertNotNull(kernel);
+    final ProjectionKernel scalar = ProjectionKernel.getScalar();
+    final Random random = new Random(42);
+    // Odd lengths and offsets exercise the scalar tail after the last full vector.
+    for (int span = 0; span < 200; span++) {
+      final int length = 1 + random.nextInt(67);
+      final int x0 = random.nextInt(2000);
+      final double[] ray = new double[6];
+      for (int k = 0; k < ray.length; k++) {
+        ray[k] = random.nextGaussian() * (k < 3 ? 1000 : 1);
+      }
+      if (span % 10 == 0) {
+        // Rays through the poles and along the seam.
+        ray[0] = 0;
+        ray[3] = 0;
+        ray[2] = -1;
+      }
+      final double[] us = new double[length];
+      final double[] vs = new double[length];
+      final double[] expectedUs = new double[length];
+      final double[] expectedVs = new double[length];
+      kernel.textureCoordinatesFast(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], x0, length,
+          us, vs);
+      scalar.textureCoordinatesFast(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], x0, length,
+          expectedUs, expectedVs);
+      for (int i = 0; i < length; i++) {
+        assertEquals(kernel.getName(), expectedUs[i], us[i], ProjectionKernel.TOLERANCE);
+        assertEquals(kernel.getName(), expectedVs[i], vs[i], ProjectionKernel.TOLERANCE);
+      }
+    }
+  }
+
+  @Test
+  public void testScalarKernelMatchesUVMapping() {
+    final double[] us = new double[3];
+    final double[] vs = new double[3];
+    ProjectionKernel.getScalar().textureCoordinatesFast(0, 0, 1, 1, 0, 0, -1, 3, us, vs);
+    assertEquals(UVMapping.getUFast(-1, 1), us[0], 0);
+    assertEquals(0.5, us[1], 0);
+    assertEquals(UVMapping.getUFast(1, 1), us[2], 0);
+    assertEquals(UVMapping.getVFast(0), vs[1], 0);
+  }
+}
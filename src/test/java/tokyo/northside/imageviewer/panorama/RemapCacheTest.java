@@ -0,0 +1,98 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class RemapCacheTest {
+
+  private static BufferedImage noise(int width, int height, long seed) {
+    Random random = new Random(seed);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, random.nextInt());
+      }
+    }
+    return image;
+  }
+
+  private static int[] pixels(BufferedImage image) {
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+  }
+
+  @Test
+  public void testSameAsDirectMapping() {
+    MipMap source = MipMap.build(noise(256, 128, 1));
+    RemapCache cache = new RemapCache(1 << 24);
+    for (boolean fastMath : new boolean[] {true, false}) {
+      for (Sampling sampling : Sampling.values()) {
+        CameraPlane plane = new CameraPlane(96, 64, 40);
+        plane.setFastMath(fastMath);
+        // Looking at a pole exercises the clamped rows.
+        plane.setRotation(2.5, 1.4);
+        BufferedImage expected = new BufferedImage(96, 64, BufferedImage.TYPE_INT_RGB);
+        plane.mapping(source, expected, sampling, () -> false);
+        BufferedImage actual = new BufferedImage(96, 64, BufferedImage.TYPE_INT_RGB);
+        plane.mapping(source, actual, sampling, cache, () -> false);
+        assertArrayEquals(sampling + " " + fastMath, pixels(expected), pixels(actual));
+      }
+    }
+    // Bicubic is not compiled.
+    assertEquals(4, cache.size());
+  }
+
+  @Test
+  public void testReuse() {
+    RemapCache cache = new RemapCache(1 << 24);
+    BufferedImage target = new BufferedImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+    MipMap first = MipMap.build(noise(128, 64, 2));
+    MipMap second = MipMap.build(noise(128, 64, 3));
+    CameraPlane plane = new CameraPlane(64, 48, 30);
+    plane.mapping(first, target, Sampling.BILINEAR, cache, () -> false);
+    plane.mapping(second, target, Sampling.BILINEAR, cache, () -> false);
+    // A new plane with the same view shares the table.
+    CameraPlane other = new CameraPlane(64, 48, 30);
+    other.mapping(first, target, Sampling.BILINEAR, cache, () -> false);
+    assertEquals(1, cache.getMissCount());
+    assertEquals(2, cache.getHitCount());
+    other.setRotation(0.5, 0);
+    other.mapping(first, target, Sampling.BILINEAR, cache, () -> false);
+    assertEquals(2, cache.getMissCount());
+    assertEquals(2, cache.size());
+    assertEquals(2 * 64 * 48 * 6, cache.getByteCount());
+  }
+
+  @Test
+  public void testBudget() {
+    // Room for two nearest neighbour tables, but not for one bilinear table more.
+    RemapCache cache = new RemapCache(2 * 64 * 48 * 4);
+    BufferedImage target = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+    MipMap source = MipMap.build(noise(128, 64, 4));
+    CameraPlane plane = new CameraPlane(64, 48, 30);
+    for (int i = 0; i < 3; i++) {
+      plane.setRotation(i, 0);
+      plane.mapping(source, target, Sampling.NEAREST, cache, () -> false);
+    }
+    assertEquals(2, cache.size());
+    // The oldest view was evicted.
+    plane.setRotation(0, 0);
+    plane.mapping(source, target, Sampling.NEAREST, cache, () -> false);
+    assertEquals(4, cache.getMissCount());
+    plane.mapping(source, target, Sampling.BILINEAR, cache, () -> false);
+    assertEquals(1, cache.size());
+    assertEquals(64 * 48 * 6, cache.getByteCount());
+
+    // A table larger than the whole budget is not kept.
+    RemapCache small = new RemapCache(64 * 48 * 4);
+    plane.mapping(source, target, Sampling.BILINEAR, small, () -> false);
+    assertEquals(0, small.size());
+  }
+}
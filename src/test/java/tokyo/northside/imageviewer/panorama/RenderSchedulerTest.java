@@ -0,0 +1,47 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+
+public class RenderSchedulerTest {
+
+  @Test
+  public void testTilesCoverFrameOnce() {
+    for (int parallelism : new int[] {1, 4}) {
+      RenderScheduler scheduler = new RenderScheduler(parallelism, 16);
+      final int width = 101;
+      final int height = 37;
+      AtomicIntegerArray hits = new AtomicIntegerArray(width * height);
+      assertTrue(scheduler.render(width, height, (x0, y0, w, h) -> {
+        for (int y = y0; y < y0 + h; y++) {
+          for (int x = x0; x < x0 + w; x++) {
+            hits.incrementAndGet(y * width + x);
+          }
+        }
+      }, () -> false));
+      for (int i = 0; i < hits.length(); i++) {
+        assertEquals(1, hits.get(i));
+      }
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancel() {
+    RenderScheduler scheduler = new RenderScheduler(2, 8);
+    AtomicInteger tiles = new AtomicInteger();
+    assertFalse(scheduler.render(256, 256, (x0, y0, w, h) -> tiles.incrementAndGet(),
+        () -> tiles.get() >= 10));
+    assertTrue(tiles.get() < 32 * 32);
+    scheduler.shutdown();
+  }
+}
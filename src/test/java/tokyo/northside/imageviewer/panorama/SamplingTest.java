@@ -0,0 +1,77 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+
+public class SamplingTest {
+
+  private static final int LEFT = 0xff0000ff;
+  private static final int RIGHT = 0xffff0000;
+
+  /**
+   * 4x2 image, blue in the first column, red in the last one and grey in between.
+   */
+  private static Texture seamTexture() {
+    BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 2; y++) {
+      image.setRGB(0, y, LEFT);
+      image.setRGB(1, y, 0xff808080);
+      image.setRGB(2, y, 0xff808080);
+      image.setRGB(3, y, RIGHT);
+    }
+    return Texture.of(image);
+  }
+
+  private static int sample(Sampling sampling, double u, double v) {
+    int[] out = new int[1];
+    sampling.sample(seamTexture(), new double[] {u}, new double[] {v}, out, 1);
+    return out[0];
+  }
+
+  @Test
+  public void testNearest() {
+    // Column 0 spans u from 0 to 0.25, as for the filtered modes.
+    assertEquals(LEFT, sample(Sampling.NEAREST, 0, 0.5));
+    assertEquals(LEFT, sample(Sampling.NEAREST, 0.24, 0.5));
+    assertEquals(0xff808080, sample(Sampling.NEAREST, 0.26, 0.5));
+    assertEquals(RIGHT, sample(Sampling.NEAREST, 0.99, 0.5));
+    // u = 1 is the seam again, v = 1 is clamped.
+    assertEquals(LEFT, sample(Sampling.NEAREST, 1, 1));
+  }
+
+  @Test
+  public void testNearestMatchesBilinearAtTexelCentres() {
+    for (double u : new double[] {0.125, 0.375, 0.625, 0.875}) {
+      assertEquals(sample(Sampling.BILINEAR, u, 0.25), sample(Sampling.NEAREST, u, 0.25));
+    }
+  }
+
+  @Test
+  public void testBilinearWrapsAtSeam() {
+    // u = 0 lies on the seam, half way between the last and the first column.
+    assertEquals(0xff800080, sample(Sampling.BILINEAR, 0, 0.5));
+    assertEquals(0xff800080, sample(Sampling.BILINEAR, 1, 0.5));
+    // Texel centre.
+    assertEquals(LEFT, sample(Sampling.BILINEAR, 0.125, 0.25));
+  }
+
+  @Test
+  public void testBilinearClampsAtPoles() {
+    assertEquals(LEFT, sample(Sampling.BILINEAR, 0.125, 0));
+    assertEquals(LEFT, sample(Sampling.BILINEAR, 0.125, 1));
+  }
+
+  @Test
+  public void testBicubic() {
+    assertEquals(LEFT, sample(Sampling.BICUBIC, 0.125, 0.25));
+    assertEquals(RIGHT, sample(Sampling.BICUBIC, 0.875, 1));
+    int seam = sample(Sampling.BICUBIC, 0, 0.5);
+    assertEquals(seam >> 16 & 0xff, seam & 0xff);
+  }
+}
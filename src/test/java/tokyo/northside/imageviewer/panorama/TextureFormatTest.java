@@ -0,0 +1,85 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+
+public class TextureFormatTest {
+
+  /**
+   * Smooth colour gradients with a hard edge, like a sky over a horizon.
+   */
+  private static BufferedImage gradient(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int r = 255 * x / width;
+        int g = y < height / 2 ? 255 * y / height : 40;
+        int b = 255 - r;
+        image.setRGB(x, y, r << 16 | g << 8 | b);
+      }
+    }
+    return image;
+  }
+
+  private static int maxError(Texture expected, Texture actual) {
+    int max = 0;
+    for (int y = 0; y < expected.height; y++) {
+      for (int x = 0; x < expected.width; x++) {
+        int p = expected.getRGB(x, y);
+        int q = actual.getRGB(x, y);
+        for (int shift = 0; shift < 32; shift += 8) {
+          max = Math.max(max, Math.abs((p >>> shift & 0xff) - (q >>> shift & 0xff)));
+        }
+      }
+    }
+    return max;
+  }
+
+  @Test
+  public void testRoundTrip() {
+    // Odd sizes leave partial chroma samples and blocks at the edges.
+    Texture source = Texture.of(gradient(203, 101));
+    assertSame(source, TextureFormat.SOURCE.encode(source));
+    assertEquals(0, maxError(source, TextureFormat.PACKED_INT.encode(source)));
+    assertTrue(maxError(source, TextureFormat.YCBCR_420.encode(source)) <= 4);
+    assertTrue(maxError(source, TextureFormat.BLOCK_COMPRESSED.encode(source)) <= 24);
+  }
+
+  @Test
+  public void testFlatColours() {
+    BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        image.setRGB(x, y, x < 4 ? 0xffffff : 0x000000);
+      }
+    }
+    Texture source = Texture.of(image);
+    for (TextureFormat format : TextureFormat.values()) {
+      assertEquals(format.name(), 0, maxError(source, format.encode(source)));
+    }
+  }
+
+  @Test
+  public void testByteCount() {
+    assertEquals(0, TextureFormat.SOURCE.getByteCount(4096, 2048));
+    assertEquals(4L * 4096 * 2048, TextureFormat.PACKED_INT.getByteCount(4096, 2048));
+    assertEquals(3L * 2048 * 2048, TextureFormat.YCBCR_420.getByteCount(4096, 2048));
+    assertEquals(4096L * 2048 / 2, TextureFormat.BLOCK_COMPRESSED.getByteCount(4096, 2048));
+
+    BufferedImage image = gradient(1024, 512);
+    MipMap source = MipMap.build(image);
+    MipMap blocks = MipMap.build(image, TextureFormat.BLOCK_COMPRESSED);
+    assertEquals(TextureFormat.BLOCK_COMPRESSED, blocks.getFormat());
+    assertEquals(source.getLevelCount(), blocks.getLevelCount());
+    // Even with its copy of level 0, less than the packed levels alone.
+    assertTrue(blocks.getByteCount() < source.getByteCount());
+  }
+}
@@ -1,6 +1,8 @@
 package tokyo.northside.imageviewer.panorama;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.joml.Math;
 import org.joml.Vector3d;
@@ -32,6 +34,43 @@ public class UVMappingTest {
     assertVectorEquals(new Vector3d(.5, 1 / Math.sqrt(2), .5), UVMapping.getVector(.625, .75), DEFAULT_DELTA);
   }
 
+  @Test
+  public void testFastMathErrorBound() {
+    final int steps = 360;
+    for (int i = 0; i <= steps; i++) {
+      // Latitudes include both poles, longitudes both sides of the +-pi seam.
+      final double lat = -Math.PI / 2 + Math.PI * i / steps;
+      for (int j = 0; j <= 2 * steps; j++) {
+        final double lon = -Math.PI + Math.PI * j / steps;
+        final Vector3d vec = new Vector3d(Math.cos(lat) * Math.sin(lon), Math.sin(lat), Math.cos(lat) * Math.cos(lon));
+        assertFastWithinBound(vec);
+      }
+    }
+    assertFastWithinBound(new Vector3d(0, 1, 0));
+    assertFastWithinBound(new Vector3d(0, -1, 0));
+    assertFastWithinBound(new Vector3d(0, 0, -1));
+    assertFastWithinBound(new Vector3d(-0.0, 0, -1));
+    assertFastWithinBound(new Vector3d(1e-300, 0, -1));
+    assertFastWithinBound(new Vector3d(-1e-300, 0, -1));
+  }
+
+  @Test
+  public void testFastMathSelection() {
+    assertTrue(UVMapping.isFastMathAccurate(16000, 8000));
+    assertFalse(UVMapping.isFastMathAccurate(64000, 32000));
+  }
+
+  private static void assertFastWithinBound(final Vector3d vec) {
+    final Vector2d exact = UVMapping.getTextureCoordinate(vec);
+    final Vector2d fast = UVMapping.getTextureCoordinateFast(vec);
+    final String message = String.format("(%f %f %f)", vec.x, vec.y, vec.z);
+    assertTrue(message, fast.x >= 0 && fast.x <= 1 && fast.y >= 0 && fast.y <= 1);
+    double du = Math.abs(exact.x - fast.x);
+    du = Math.min(du, 1 - du);
+    assertTrue(message, du <= UVMapping.FAST_U_MAX_ERROR);
+    assertTrue(message, Math.abs(exact.y - fast.y) <= UVMapping.FAST_V_MAX_ERROR);
+  }
+
   private static void assertVectorEquals(final Vector3d expected, final Vector3d actual, final double delta) {
     final String message = String.format(
       "Expected (%f %f %f), but was (%f %f %f)",
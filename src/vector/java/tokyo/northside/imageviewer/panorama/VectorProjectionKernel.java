@@ -0,0 +1,88 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Vector API variant of {@link ProjectionKernel.Scalar}.
+ * <p>
+ * Each lane follows the scalar code operation for operation: the ray components, the
+ * octant reduction and polynomial of {@link UVMapping#fastAtan2(double, double)}, and the
+ * polynomial of {@link UVMapping#fastAsin(double)}. Branches become lane masks. No fused
+ * multiply-add is used, so the coordinates match the scalar kernel bit for bit on common
+ * hardware; {@link ProjectionKernel#TOLERANCE} leaves room for platforms that differ.
+ * <p>
+ * Loaded reflectively by {@link ProjectionKernel#getVector()}; needs Java 16 or later and
+ * {@code --add-modules jdk.incubator.vector}.
+ */
+final class VectorProjectionKernel extends ProjectionKernel {
+
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+  private static final double HALF_PI = Math.PI / 2;
+  private static final double TWO_PI = 2 * Math.PI;
+
+  /**
+   * Create the kernel.
+   * @throws IllegalStateException when the preferred shape holds a single double, in which
+   *     case the scalar kernel is faster.
+   */
+  VectorProjectionKernel() {
+    if (SPECIES.length() < 2) {
+      throw new IllegalStateException("no vector shape for doubles");
+    }
+  }
+
+  @Override
+  String getName() {
+    return "vector" + SPECIES.vectorBitSize();
+  }
+
+  @Override
+  void textureCoordinatesFast(final double baseX, final double baseY, final double baseZ,
+                              final double stepX, final double stepY, final double stepZ,
+                              final int x0, final int length, final double[] us,
+                              final double[] vs) {
+    final DoubleVector lane = DoubleVector.zero(SPECIES).addIndex(1);
+    final int bound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      final DoubleVector x = lane.add(x0 + i);
+      final DoubleVector vx = x.mul(stepX).add(baseX);
+      final DoubleVector vy = x.mul(stepY).add(baseY);
+      final DoubleVector vz = x.mul(stepZ).add(baseZ);
+      final DoubleVector invLength = DoubleVector.broadcast(SPECIES, 1.0d)
+          .div(vx.mul(vx).add(vy.mul(vy)).add(vz.mul(vz)).sqrt());
+      fastAtan2(vx, vz).div(TWO_PI).add(0.5).intoArray(us, i);
+      fastAsin(vy.mul(invLength)).div(Math.PI).add(0.5).intoArray(vs, i);
+    }
+    Scalar.fill(baseX, baseY, baseZ, stepX, stepY, stepZ, x0, i, length, us, vs);
+  }
+
+  private static DoubleVector fastAtan2(final DoubleVector y, final DoubleVector x) {
+    final DoubleVector ax = x.abs();
+    final DoubleVector ay = y.abs();
+    final DoubleVector max = ax.max(ay);
+    final VectorMask<Double> steep = ay.compare(VectorOperators.GT, ax);
+    final DoubleVector a = ax.min(ay).div(max);
+    final DoubleVector s = a.mul(a);
+    DoubleVector r = s.mul(0.0208351).sub(0.0851330).mul(s).add(0.1801410).mul(s)
+        .sub(0.3302995).mul(s).add(0.9998660).mul(a);
+    r = r.blend(r.neg().add(HALF_PI), steep);
+    r = r.blend(r.neg().add(Math.PI), x.compare(VectorOperators.LT, 0));
+    r = r.blend(r.neg(), y.compare(VectorOperators.LT, 0));
+    return r.blend(0, max.compare(VectorOperators.EQ, 0));
+  }
+
+  private static DoubleVector fastAsin(final DoubleVector y) {
+    final DoubleVector a = y.abs().min(1.0);
+    final DoubleVector p = a.mul(-0.0187293).add(0.0742610).mul(a).sub(0.2121144).mul(a)
+        .add(1.5707288);
+    final DoubleVector r = a.neg().add(1).sqrt().mul(p).neg().add(HALF_PI);
+    return r.blend(r.neg(), y.compare(VectorOperators.LT, 0));
+  }
+}